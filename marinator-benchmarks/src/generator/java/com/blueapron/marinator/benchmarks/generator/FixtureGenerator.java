@@ -0,0 +1,157 @@
+package com.blueapron.marinator.benchmarks.generator;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Generates the synthetic models and components used by the benchmarks. The sources are run
+ * through the Marinator annotation processor like any other app code, so the benchmarks measure
+ * the real generated MarinadeHelper.
+ *
+ * Usage: FixtureGenerator [output dir] [number of injected types]
+ */
+public final class FixtureGenerator {
+
+    private static final String PACKAGE_NAME = "com.blueapron.marinator.benchmarks.fixtures";
+    private static final String MODEL_PREFIX = "FixtureObject";
+    private static final int TYPES_PER_COMPONENT = 100;
+
+    private final File mPackageDir;
+    private final int mTypeCount;
+    private final int mComponentCount;
+
+    private FixtureGenerator(File outputDir, int typeCount) {
+        mPackageDir = new File(outputDir, PACKAGE_NAME.replace('.', File.separatorChar));
+        mTypeCount = typeCount;
+        mComponentCount = (typeCount + TYPES_PER_COMPONENT - 1) / TYPES_PER_COMPONENT;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            throw new IllegalArgumentException("Usage: FixtureGenerator <output dir> <types>");
+        }
+        new FixtureGenerator(new File(args[0]), Integer.parseInt(args[1])).generate();
+    }
+
+    private void generate() throws IOException {
+        if (!mPackageDir.isDirectory() && !mPackageDir.mkdirs()) {
+            throw new IOException("Unable to create " + mPackageDir);
+        }
+
+        for (int i = 0; i < mTypeCount; i++) {
+            writeModel(modelName(i), null /* superclass */);
+        }
+        for (int i = 0; i < mComponentCount; i++) {
+            writeComponent(i);
+        }
+
+        // A small loose hierarchy, plus a type that is never registered.
+        writeModel("LooseBase", null /* superclass */);
+        writeModel("LooseChild", "LooseBase");
+        writeModel("UnregisteredObject", null /* superclass */);
+        writeLooseComponent();
+
+        writeFixtures();
+    }
+
+    private void writeModel(String name, String superclass) throws IOException {
+        StringBuilder builder = header();
+        builder.append("public class ").append(name);
+        if (superclass != null) {
+            builder.append(" extends ").append(superclass);
+        }
+        builder.append(" {\n")
+                .append("    public int injected;\n")
+                .append("}\n");
+        write(name, builder);
+    }
+
+    private void writeComponent(int index) throws IOException {
+        StringBuilder builder = header();
+        builder.append("import com.blueapron.marinator.Injector;\n\n")
+                .append("public class ").append(componentName(index)).append(" {\n");
+        int end = Math.min(mTypeCount, (index + 1) * TYPES_PER_COMPONENT);
+        for (int i = index * TYPES_PER_COMPONENT; i < end; i++) {
+            builder.append("    @Injector(factory = true)\n")
+                    .append("    public void inject(").append(modelName(i)).append(" obj) {\n")
+                    .append("        obj.injected++;\n")
+                    .append("    }\n");
+        }
+        builder.append("}\n");
+        write(componentName(index), builder);
+    }
+
+    private void writeLooseComponent() throws IOException {
+        StringBuilder builder = header();
+        builder.append("import com.blueapron.marinator.Injector;\n\n")
+                .append("public class LooseComponent {\n")
+                .append("    @Injector(strict = false)\n")
+                .append("    public void inject(LooseBase obj) {\n")
+                .append("        obj.injected++;\n")
+                .append("    }\n")
+                .append("}\n");
+        write("LooseComponent", builder);
+    }
+
+    private void writeFixtures() throws IOException {
+        StringBuilder builder = header();
+        builder.append("import com.blueapron.marinator.generated.MarinadeHelper;\n\n")
+                .append("public final class Fixtures {\n\n")
+                .append("    public static final int TYPE_COUNT = ").append(mTypeCount)
+                .append(";\n\n")
+                .append("    private Fixtures() {\n")
+                .append("    }\n\n");
+
+        // An array of this many class literals would push <clinit> past the 64KB method limit,
+        // so types are looked up by name instead.
+        builder.append("    public static Class<?> type(int index) {\n")
+                .append("        try {\n")
+                .append("            return Class.forName(String.format(\"")
+                .append(PACKAGE_NAME).append('.').append(MODEL_PREFIX)
+                .append("%05d\", index));\n")
+                .append("        } catch (ClassNotFoundException e) {\n")
+                .append("            throw new IllegalArgumentException(e);\n")
+                .append("        }\n")
+                .append("    }\n\n")
+                .append("    public static void prepare() {\n")
+                .append("        MarinadeHelper.prepare(\n");
+
+        // The generated prepare method takes its components sorted by parameter name.
+        String[] names = new String[mComponentCount + 1];
+        for (int i = 0; i < mComponentCount; i++) {
+            names[i] = componentName(i);
+        }
+        names[mComponentCount] = "LooseComponent";
+        Arrays.sort(names);
+        for (int i = 0; i < names.length; i++) {
+            builder.append("                new ").append(names[i]).append("()")
+                    .append(i == names.length - 1 ? ");\n" : ",\n");
+        }
+        builder.append("    }\n")
+                .append("}\n");
+        write("Fixtures", builder);
+    }
+
+    private StringBuilder header() {
+        return new StringBuilder()
+                .append("// Generated by FixtureGenerator - do not edit.\n")
+                .append("package ").append(PACKAGE_NAME).append(";\n\n");
+    }
+
+    private void write(String className, CharSequence contents) throws IOException {
+        try (Writer writer = new FileWriter(new File(mPackageDir, className + ".java"))) {
+            writer.append(contents);
+        }
+    }
+
+    private static String modelName(int index) {
+        return String.format(MODEL_PREFIX + "%05d", index);
+    }
+
+    private static String componentName(int index) {
+        return String.format("FixtureComponent%03d", index);
+    }
+}
@@ -0,0 +1,63 @@
+package com.blueapron.marinator.benchmarks;
+
+import com.blueapron.marinator.Marinator;
+import com.blueapron.marinator.benchmarks.fixtures.Fixtures;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares injecting a large list of objects on the calling thread against injecting it in
+ * parallel on the common fork-join pool. The fixture injectors are trivial, so this measures the
+ * overhead of splitting the work up rather than the speedup for expensive injectors.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BulkInjectBenchmark {
+
+    private List<Object> mObjects;
+
+    @Setup
+    public void setUp() throws Exception {
+        Marinator.clear();
+        Fixtures.prepare();
+
+        mObjects = new ArrayList<>(Fixtures.TYPE_COUNT);
+        for (int i = 0; i < Fixtures.TYPE_COUNT; i++) {
+            mObjects.add(Fixtures.type(i).newInstance());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        Marinator.clear();
+    }
+
+    @Benchmark
+    public void injectAll() {
+        Marinator.injectAll(mObjects);
+    }
+
+    @Benchmark
+    public void injectAllAsync() {
+        Marinator.injectAllAsync(mObjects, ForkJoinPool.commonPool()).join();
+    }
+}
@@ -0,0 +1,126 @@
+package com.blueapron.marinator.benchmarks;
+
+import com.blueapron.marinator.Marinator;
+import com.blueapron.marinator.ResolvedInjector;
+import com.blueapron.marinator.benchmarks.fixtures.Fixtures;
+import com.blueapron.marinator.benchmarks.fixtures.LooseChild;
+import com.blueapron.marinator.benchmarks.fixtures.UnregisteredObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of a single Marinator.inject call through the generated MarinadeHelper, with
+ * every fixture type registered.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InjectBenchmark {
+
+    private Object mStrict;
+    private Class<?> mStrictType;
+    private ResolvedInjector<Object> mResolved;
+    private LooseChild mLoose;
+    private UnregisteredObject mMiss;
+
+    @Setup
+    public void setUp() throws Exception {
+        Marinator.clear();
+        Fixtures.prepare();
+
+        // Pick a type from the middle of the registry, so we're not measuring a lucky bucket.
+        mStrict = Fixtures.type(Fixtures.TYPE_COUNT / 2).newInstance();
+        @SuppressWarnings("unchecked")
+        Class<Object> type = (Class<Object>) mStrict.getClass();
+        mStrictType = type;
+        mResolved = Marinator.injectorFor(type);
+        mLoose = new LooseChild();
+        mMiss = new UnregisteredObject();
+    }
+
+    @TearDown
+    public void tearDown() {
+        Marinator.clear();
+    }
+
+    @Benchmark
+    public void strictHit() {
+        Marinator.inject(mStrict);
+    }
+
+    @Benchmark
+    public void resolvedStrictHit() {
+        mResolved.inject(mStrict);
+    }
+
+    @Benchmark
+    public Object reflectiveNewInstance() throws Exception {
+        Object obj = mStrictType.newInstance();
+        Marinator.inject(obj);
+        return obj;
+    }
+
+    @Benchmark
+    public Object newInstance() {
+        return Marinator.newInstance(mStrictType);
+    }
+
+    @Benchmark
+    public Object resolvedNewInstance() {
+        return mResolved.newInstance();
+    }
+
+    @Benchmark
+    public void looseHit() {
+        Marinator.inject(mLoose);
+    }
+
+    @Benchmark
+    public boolean miss() {
+        try {
+            Marinator.inject(mMiss);
+            return true;
+        } catch (IllegalStateException ise) {
+            return false;
+        }
+    }
+
+    @Benchmark
+    public boolean tryInjectMiss() {
+        return Marinator.tryInject(mMiss);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void contendedStrictHit() {
+        Marinator.inject(mStrict);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void contendedResolvedStrictHit() {
+        mResolved.inject(mStrict);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void contendedLooseHit() {
+        Marinator.inject(mLoose);
+    }
+}
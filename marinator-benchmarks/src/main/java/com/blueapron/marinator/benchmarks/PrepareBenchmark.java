@@ -0,0 +1,40 @@
+package com.blueapron.marinator.benchmarks;
+
+import com.blueapron.marinator.Marinator;
+import com.blueapron.marinator.benchmarks.fixtures.Fixtures;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures startup registration of every fixture type through the generated MarinadeHelper.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrepareBenchmark {
+
+    @TearDown
+    public void tearDown() {
+        Marinator.clear();
+    }
+
+    @Benchmark
+    public void prepare() {
+        Marinator.clear();
+        Fixtures.prepare();
+    }
+}
@@ -0,0 +1,130 @@
+package com.blueapron.marinator.benchmarks;
+
+import com.blueapron.marinator.processor.InjectorProcessor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+/**
+ * Measures how long it takes to compile a module with the given number of @Injector methods,
+ * spread across components of 100 methods each. This includes running the Marinator processor and
+ * compiling everything it generates, just like a real build. Add {@code -prof gc} to the JMH
+ * arguments to see how much memory each compilation allocates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ProcessorBenchmark {
+
+    private static final String PACKAGE_NAME = "com.blueapron.marinator.benchmarks.processor";
+    private static final int TYPES_PER_COMPONENT = 100;
+
+    @Param({"1000", "10000", "50000"})
+    public int injectorCount;
+
+    private List<JavaFileObject> mSources;
+    private File mOutputDir;
+
+    @Setup
+    public void setUp() throws IOException {
+        mOutputDir = Files.createTempDirectory("marinator-processor").toFile();
+        mSources = new ArrayList<>();
+        for (int i = 0; i < injectorCount; i++) {
+            String name = String.format("Model%05d", i);
+            mSources.add(source(name, "public class " + name + " {\n"
+                    + "    public int injected;\n"
+                    + "}\n"));
+        }
+        for (int start = 0; start < injectorCount; start += TYPES_PER_COMPONENT) {
+            String name = String.format("Component%03d", start / TYPES_PER_COMPONENT);
+            StringBuilder builder = new StringBuilder("public class " + name + " {\n");
+            int end = Math.min(injectorCount, start + TYPES_PER_COMPONENT);
+            for (int i = start; i < end; i++) {
+                builder.append("    @com.blueapron.marinator.Injector\n")
+                        .append(String.format("    public void inject(Model%05d obj) {\n", i))
+                        .append("        obj.injected++;\n")
+                        .append("    }\n");
+            }
+            mSources.add(source(name, builder.append("}\n").toString()));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        delete(mOutputDir);
+    }
+
+    @Benchmark
+    public boolean compile() {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        List<String> options = Arrays.asList(
+                "-d", mOutputDir.getPath(),
+                "-s", mOutputDir.getPath(),
+                "-classpath", System.getProperty("java.class.path"));
+        JavaCompiler.CompilationTask task = compiler.getTask(null /* out */,
+                null /* fileManager */, diagnostics, options, null /* classes */, mSources);
+        task.setProcessors(Collections.singletonList(new InjectorProcessor()));
+        if (!task.call()) {
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                    throw new IllegalStateException(diagnostic.toString());
+                }
+            }
+            throw new IllegalStateException("Compilation failed");
+        }
+        return true;
+    }
+
+    private static JavaFileObject source(String className, String body) {
+        final String contents = "package " + PACKAGE_NAME + ";\n\n" + body;
+        URI uri = URI.create("string:///" + PACKAGE_NAME.replace('.', '/') + "/" + className
+                + ".java");
+        return new SimpleJavaFileObject(uri, JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return contents;
+            }
+        };
+    }
+
+    private static void delete(File file) throws IOException {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        Files.deleteIfExists(file.toPath());
+    }
+}
@@ -0,0 +1,60 @@
+package com.blueapron.marinator.benchmarks;
+
+import com.blueapron.marinator.Marinator;
+import com.blueapron.marinator.benchmarks.fixtures.Fixtures;
+import com.blueapron.marinator.benchmarks.fixtures.UnregisteredObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of dynamic register/unregister churn against a registry of a given size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistrationBenchmark {
+
+    private static final Marinator.Injector NO_OP_INJECTOR = new Marinator.Injector() {
+        @Override
+        public void inject(Object obj) {
+        }
+    };
+
+    @Param({"10", "100", "1000", "10000"})
+    public int registered;
+
+    @Setup
+    public void setUp() {
+        Marinator.clear();
+        for (int i = 0; i < Math.min(registered, Fixtures.TYPE_COUNT); i++) {
+            Marinator.registerInjector(Fixtures.type(i), NO_OP_INJECTOR, true);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        Marinator.clear();
+    }
+
+    @Benchmark
+    public void registerChurn() {
+        Marinator.registerInjector(UnregisteredObject.class, NO_OP_INJECTOR, true);
+        Marinator.unregisterInjector(UnregisteredObject.class);
+    }
+}
@@ -0,0 +1,92 @@
+package com.blueapron.marinator.benchmarks;
+
+import com.blueapron.marinator.Marinator;
+import com.blueapron.marinator.benchmarks.fixtures.Fixtures;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how injection cost scales with the number of registered types. Each invocation injects
+ * the next object in a rotation over every registered type, so lookups don't all hit one bucket.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScalingBenchmark {
+
+    private static final Marinator.Injector NO_OP_INJECTOR = new Marinator.Injector() {
+        @Override
+        public void inject(Object obj) {
+        }
+    };
+
+    @Param({"10", "100", "1000", "10000"})
+    public int typeCount;
+
+    private Object[] mObjects;
+
+    @Setup
+    public void setUp() throws Exception {
+        Marinator.clear();
+        int count = Math.min(typeCount, Fixtures.TYPE_COUNT);
+        mObjects = new Object[count];
+        Class[] types = new Class[count];
+        Marinator.Injector[] injectors = new Marinator.Injector[count];
+        boolean[] strict = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            types[i] = Fixtures.type(i);
+            injectors[i] = NO_OP_INJECTOR;
+            strict[i] = true;
+            mObjects[i] = types[i].newInstance();
+        }
+        // Registered as one table, just like the generated helper does. Registering one type at
+        // a time copies the registry for every type.
+        Marinator.registerInjectors(types, injectors, strict);
+    }
+
+    @TearDown
+    public void tearDown() {
+        Marinator.clear();
+    }
+
+    @Benchmark
+    public void inject(Cursor cursor) {
+        Marinator.inject(mObjects[cursor.next(mObjects.length)]);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void contendedInject(Cursor cursor) {
+        Marinator.inject(mObjects[cursor.next(mObjects.length)]);
+    }
+
+    /**
+     * Per-thread position in the rotation, so threads don't share a counter.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int mIndex;
+
+        int next(int length) {
+            mIndex = mIndex + 1 == length ? 0 : mIndex + 1;
+            return mIndex;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.blueapron.marinator.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.SettingDefinition;
+
+@Name("com.blueapron.marinator.Clear")
+@Label("Registry Clear")
+@Description("Every injector removed from a Marinator registry")
+final class ClearEvent extends MarinatorEvent {
+
+    @Label("Minimum Elapsed Time")
+    @SettingDefinition
+    protected boolean minElapsed(MinElapsedControl control) {
+        return elapsed >= control.getNanos();
+    }
+}
@@ -0,0 +1,25 @@
+package com.blueapron.marinator.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.SettingDefinition;
+
+@Name("com.blueapron.marinator.Inject")
+@Label("Injection")
+@Description("An object injected by Marinator")
+final class InjectEvent extends MarinatorEvent {
+
+    @Label("Type")
+    Class<?> type;
+
+    @Label("Resolution")
+    @Description("How the injector was found - STRICT, LOOSE or MISS")
+    String resolution;
+
+    @Label("Minimum Elapsed Time")
+    @SettingDefinition
+    protected boolean minElapsed(MinElapsedControl.Inject control) {
+        return elapsed >= control.getNanos();
+    }
+}
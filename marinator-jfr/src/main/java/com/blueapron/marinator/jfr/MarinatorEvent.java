@@ -0,0 +1,24 @@
+package com.blueapron.marinator.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Timespan;
+
+/**
+ * Base class for Marinator's events. Marinator measures each operation itself and reports it
+ * afterwards, so rather than JFR's own duration and threshold, every event carries the elapsed
+ * time as a field and is filtered by its {@code minElapsed} setting instead - see
+ * {@link MinElapsedControl}.
+ *
+ * The events are disabled unless a recording asks for them, so that recordings which don't care
+ * about Marinator don't slow injection down.
+ */
+@Category("Marinator")
+@Enabled(false)
+abstract class MarinatorEvent extends jdk.jfr.Event {
+
+    @Label("Elapsed Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long elapsed;
+}
@@ -0,0 +1,163 @@
+package com.blueapron.marinator.jfr;
+
+import com.blueapron.marinator.Marinator;
+
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+/**
+ * Reports Marinator's work to Java Flight Recorder. Once enabled, every injection, registration,
+ * removal and clear is recorded as an event in the "Marinator" category - but only while a
+ * recording that enables at least one of those events is running. The rest of the time no listener
+ * is installed, so Marinator runs exactly as fast as it does without JFR, and this can be left
+ * enabled in production. The events are disabled by default, so recordings with the stock JFR
+ * settings don't install anything - enable them in a .jfc file or on the recording.
+ *
+ * Each event carries the time the operation took, and is only recorded if that's at least its
+ * {@code minElapsed} setting. Injection events default to 1 ms, so only slow injections are
+ * recorded; the rest default to 0 ns. Change them in a .jfc file or when starting a recording:
+ *
+ * <pre>{@code
+ * recording.enable("com.blueapron.marinator.Inject").with("minElapsed", "100 us");
+ * }</pre>
+ *
+ * The listeners are added alongside any others, such as InjectionMetrics, rather than replacing
+ * them. Settings changed on a recording that's already running take effect the next time any
+ * recording starts or stops.
+ */
+public final class MarinatorJfr {
+
+    private static final Listener LISTENER = new Listener();
+
+    private static final FlightRecorderListener RECORDER_LISTENER = new FlightRecorderListener() {
+        @Override
+        public void recordingStateChanged(Recording recording) {
+            update();
+        }
+    };
+
+    private static final Class[] EVENT_CLASSES = {
+        InjectEvent.class, RegisterEvent.class, UnregisterEvent.class, ClearEvent.class,
+    };
+
+    private static boolean sEnabled;
+    private static boolean sInstalled;
+
+    // Hide to avoid construction.
+    private MarinatorJfr() {
+    }
+
+    /**
+     * Starts reporting to JFR whenever a recording is running.
+     *
+     * @return False if JFR isn't available in this JVM.
+     */
+    public static synchronized boolean enable() {
+        if (!FlightRecorder.isAvailable()) {
+            return false;
+        }
+        if (!sEnabled) {
+            sEnabled = true;
+            FlightRecorder.addListener(RECORDER_LISTENER);
+            update();
+        }
+        return true;
+    }
+
+    /**
+     * Stops reporting to JFR.
+     */
+    public static synchronized void disable() {
+        if (sEnabled) {
+            sEnabled = false;
+            FlightRecorder.removeListener(RECORDER_LISTENER);
+            update();
+        }
+    }
+
+    private static synchronized void update() {
+        boolean install = sEnabled && isRecording() && isAnyEventEnabled();
+        if (install == sInstalled) {
+            return;
+        }
+        sInstalled = install;
+        if (install) {
+            Marinator.addInjectionListener(LISTENER);
+            Marinator.addRegistrationListener(LISTENER);
+        } else {
+            Marinator.removeInjectionListener(LISTENER);
+            Marinator.removeRegistrationListener(LISTENER);
+        }
+    }
+
+    private static boolean isRecording() {
+        if (!FlightRecorder.isInitialized()) {
+            return false;
+        }
+        for (Recording recording : FlightRecorder.getFlightRecorder().getRecordings()) {
+            if (recording.getState() == RecordingState.RUNNING) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static boolean isAnyEventEnabled() {
+        for (Class eventClass : EVENT_CLASSES) {
+            if (EventType.getEventType(eventClass).isEnabled()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class Listener
+            implements Marinator.InjectionListener, Marinator.RegistrationListener {
+
+        @Override
+        public void onInject(Class<?> type, Marinator.Resolution resolution,
+                long durationNanos) {
+            InjectEvent event = new InjectEvent();
+            if (event.isEnabled()) {
+                event.elapsed = durationNanos;
+                event.type = type;
+                event.resolution = resolution.name();
+                event.commit();
+            }
+        }
+
+        @Override
+        public void onRegister(int count, boolean replace, long durationNanos) {
+            RegisterEvent event = new RegisterEvent();
+            if (event.isEnabled()) {
+                event.elapsed = durationNanos;
+                event.count = count;
+                event.replace = replace;
+                event.commit();
+            }
+        }
+
+        @Override
+        public void onUnregister(int count, long durationNanos) {
+            UnregisterEvent event = new UnregisterEvent();
+            if (event.isEnabled()) {
+                event.elapsed = durationNanos;
+                event.count = count;
+                event.commit();
+            }
+        }
+
+        @Override
+        public void onClear(long durationNanos) {
+            ClearEvent event = new ClearEvent();
+            if (event.isEnabled()) {
+                event.elapsed = durationNanos;
+                event.commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.blueapron.marinator.jfr;
+
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import jdk.jfr.SettingControl;
+
+/**
+ * Threshold for the {@code minElapsed} setting of Marinator's events, written like JFR's own
+ * thresholds - ie, {@code "1 ms"} or {@code "0 ns"}. When several recordings ask for different
+ * thresholds, the lowest one wins, so each recording gets at least the events it asked for.
+ */
+class MinElapsedControl extends SettingControl {
+
+    private volatile String mValue;
+    private volatile long mNanos;
+
+    // JFR uses the initial value as the setting's default. It also instantiates controls through
+    // their first declared constructor, so each control must only have one.
+    MinElapsedControl() {
+        setValue("0 ns");
+    }
+
+    @Override
+    public String combine(Set<String> values) {
+        String lowest = null;
+        long lowestNanos = Long.MAX_VALUE;
+        for (String value : values) {
+            long nanos = parse(value);
+            if (nanos < lowestNanos) {
+                lowest = value;
+                lowestNanos = nanos;
+            }
+        }
+        return lowest == null ? "0 ns" : lowest;
+    }
+
+    @Override
+    public void setValue(String value) {
+        mNanos = parse(value);
+        mValue = value;
+    }
+
+    @Override
+    public String getValue() {
+        return mValue;
+    }
+
+    long getNanos() {
+        return mNanos;
+    }
+
+    static long parse(String value) {
+        String[] parts = value.trim().toLowerCase(Locale.US).split("\\s+");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Invalid duration " + value);
+        }
+        long amount = Long.parseLong(parts[0]);
+        switch (parts[1]) {
+            case "ns":
+                return amount;
+            case "us":
+                return TimeUnit.MICROSECONDS.toNanos(amount);
+            case "ms":
+                return TimeUnit.MILLISECONDS.toNanos(amount);
+            case "s":
+                return TimeUnit.SECONDS.toNanos(amount);
+            case "m":
+                return TimeUnit.MINUTES.toNanos(amount);
+            default:
+                throw new IllegalArgumentException("Invalid duration " + value);
+        }
+    }
+
+    /**
+     * Injections are frequent, so by default only slow ones are recorded.
+     */
+    static final class Inject extends MinElapsedControl {
+        Inject() {
+            setValue("1 ms");
+        }
+    }
+}
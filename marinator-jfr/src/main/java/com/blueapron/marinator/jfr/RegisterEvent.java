@@ -0,0 +1,24 @@
+package com.blueapron.marinator.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.SettingDefinition;
+
+@Name("com.blueapron.marinator.Register")
+@Label("Injector Registration")
+@Description("Injectors registered with Marinator, ie by MarinadeHelper.prepare")
+final class RegisterEvent extends MarinatorEvent {
+
+    @Label("Count")
+    int count;
+
+    @Label("Replace")
+    boolean replace;
+
+    @Label("Minimum Elapsed Time")
+    @SettingDefinition
+    protected boolean minElapsed(MinElapsedControl control) {
+        return elapsed >= control.getNanos();
+    }
+}
@@ -0,0 +1,21 @@
+package com.blueapron.marinator.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.SettingDefinition;
+
+@Name("com.blueapron.marinator.Unregister")
+@Label("Injector Removal")
+@Description("Injectors removed from Marinator")
+final class UnregisterEvent extends MarinatorEvent {
+
+    @Label("Count")
+    int count;
+
+    @Label("Minimum Elapsed Time")
+    @SettingDefinition
+    protected boolean minElapsed(MinElapsedControl control) {
+        return elapsed >= control.getNanos();
+    }
+}
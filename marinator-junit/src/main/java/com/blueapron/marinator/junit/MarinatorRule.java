@@ -0,0 +1,42 @@
+package com.blueapron.marinator.junit;
+
+import com.blueapron.marinator.Marinator;
+import com.blueapron.marinator.MarinatorRegistry;
+
+import org.junit.rules.ExternalResource;
+
+/**
+ * JUnit rule which gives each test its own Marinator override layer. Anything the test registers
+ * through Marinator - including by calling MarinadeHelper.prepare - is only visible to the test's
+ * thread, and is thrown away when the test finishes. This lets test classes install their own
+ * mock components and still run concurrently.
+ *
+ * <pre>
+ * &#064;Rule public final MarinatorRule marinator = new MarinatorRule();
+ * </pre>
+ */
+public final class MarinatorRule extends ExternalResource {
+
+    private Marinator.ThreadOverride mOverride;
+
+    @Override
+    protected void before() {
+        mOverride = Marinator.override();
+    }
+
+    @Override
+    protected void after() {
+        mOverride.close();
+        mOverride = null;
+    }
+
+    /**
+     * Returns the registry backing the current test.
+     */
+    public MarinatorRegistry getRegistry() {
+        if (mOverride == null) {
+            throw new IllegalStateException("MarinatorRule is only active while a test runs!");
+        }
+        return mOverride.getRegistry();
+    }
+}
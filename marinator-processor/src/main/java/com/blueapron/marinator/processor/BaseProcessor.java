@@ -10,6 +10,7 @@ import javax.annotation.processing.Messager;
 import javax.annotation.processing.ProcessingEnvironment;
 import javax.lang.model.SourceVersion;
 import javax.lang.model.element.Element;
+import javax.lang.model.util.Elements;
 import javax.lang.model.util.Types;
 import javax.tools.Diagnostic;
 
@@ -21,6 +22,7 @@ public abstract class BaseProcessor extends AbstractProcessor {
     protected Messager mMessager;
     protected Filer mFiler;
     protected Types mTypeUtils;
+    protected Elements mElementUtils;
 
     @Override
     public synchronized void init(ProcessingEnvironment env) {
@@ -28,6 +30,7 @@ public abstract class BaseProcessor extends AbstractProcessor {
         mMessager = env.getMessager();
         mFiler = env.getFiler();
         mTypeUtils = env.getTypeUtils();
+        mElementUtils = env.getElementUtils();
     }
 
     @Override
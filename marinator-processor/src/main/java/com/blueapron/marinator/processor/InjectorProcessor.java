@@ -1,32 +1,45 @@
 package com.blueapron.marinator.processor;
 
 import com.blueapron.marinator.Injector;
+import com.blueapron.marinator.MarinadeFragment;
 import com.google.common.base.CaseFormat;
-import com.google.common.base.Preconditions;
+import com.squareup.javapoet.ArrayTypeName;
 import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
 import com.squareup.javapoet.FieldSpec;
 import com.squareup.javapoet.JavaFile;
 import com.squareup.javapoet.MethodSpec;
 import com.squareup.javapoet.ParameterSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
 import com.squareup.javapoet.TypeName;
 import com.squareup.javapoet.TypeSpec;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 
 import javax.annotation.processing.RoundEnvironment;
 import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
 import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
 import javax.lang.model.type.TypeMirror;
 import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.StandardLocation;
 
 /**
  * Processor for the Injector annotation.
@@ -36,32 +49,147 @@ public final class InjectorProcessor extends BaseProcessor {
     private static final String ROOT_PACKAGE = "com.blueapron.marinator";
     private static final String PACKAGE_NAME = ROOT_PACKAGE + ".generated";
     private static final String INSTANCE_NAME = "sInstance";
+    private static final String REGISTRATION_NAME = "mRegistration";
 
     private static final String INJECTORS_CLASS_NAME = "Marinator";
+    private static final String HOLDER_CLASS_NAME = "ComponentHolder";
+    private static final String REGISTRATION_CLASS_NAME = "Registration";
     private static final String GENERATED_CLASS_NAME = "MarinadeHelper";
 
+    // Number of injectors filled in per generated table class. Each chunk gets its own class, and
+    // so its own constant pool, keeping both the method and the pool well under the JVM's limits.
+    private static final int TABLE_CHUNK_SIZE = 1000;
+
+    // Maximum number of types a single generated injector class dispatches to, keeping its switch
+    // well under the JVM's 64KB method size limit.
+    private static final int DISPATCH_CHUNK_SIZE = 1000;
+
+    /**
+     * Name of the current module. When set, the processor generates a uniquely named helper
+     * fragment for this module (ie, "network" generates NetworkMarinadeHelper), so that several
+     * modules in the same app can each use @Injector.
+     */
+    static final String OPTION_MODULE = "marinator.module";
+
+    /**
+     * Whether this module should aggregate the helper fragments on its classpath. When set, the
+     * processor generates a MarinadeHelper that prepares every fragment, as well as any injectors
+     * declared in this module. This is normally only set on the app module.
+     */
+    static final String OPTION_AGGREGATE = "marinator.aggregate";
+
+    /**
+     * Maximum number of types to generate the typed Marinade facade for. javac checks every
+     * overload of a method against every other one, so compiling the facade gets quadratically
+     * slower as it grows. Modules with more types than this get a facade with a single
+     * inject(Object) overload instead, which always goes through the registry.
+     */
+    static final String OPTION_FACADE_LIMIT = "marinator.facadeLimit";
+    private static final int DEFAULT_FACADE_LIMIT = 1000;
+
+    /**
+     * Whether to also generate a registration table which is built when the helper's nested
+     * Prebuilt class is initialized, along with native-image configuration that initializes it
+     * at image build time. The app then calls preparePrebuilt, which registers the ready-made
+     * table and binds its components. When aggregating, every fragment must be built with this
+     * option as well.
+     */
+    static final String OPTION_PREBUILT = "marinator.prebuilt";
+    private static final String PREBUILT_CLASS_NAME = "Prebuilt";
+
+    // Library classes with instances held by the prebuilt table, which native-image therefore
+    // has to initialize at build time. The registry itself is only created at runtime, so that
+    // system properties like marinator.weakRegistry are read when the image runs.
+    private static final String[] BUILD_TIME_CLASSES = {
+        "ComponentHolder",
+    };
+
+    private boolean mHelperWritten;
+    private boolean mHasErrors;
+
     @Override
     public Set<String> getSupportedAnnotationTypes() {
+        // The aggregator has to run even if its own module doesn't declare any injectors.
+        if (isAggregating()) {
+            return Collections.singleton("*");
+        }
         Set<String> set = new HashSet<>();
         set.add(Injector.class.getCanonicalName());
         return set;
     }
 
+    @Override
+    public Set<String> getSupportedOptions() {
+        Set<String> set = new HashSet<>();
+        set.add(OPTION_MODULE);
+        set.add(OPTION_AGGREGATE);
+        set.add(OPTION_FACADE_LIMIT);
+        set.add(OPTION_PREBUILT);
+        return set;
+    }
+
     @Override
     public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        // Never claim annotations - when aggregating we're registered for all of them.
         Set<? extends Element> injectMethods = roundEnv.getElementsAnnotatedWith(Injector.class);
-        if (injectMethods.size() == 0) {
-            return true;
+        if (mHelperWritten) {
+            // App code refers to the helper, so it has to be written in the first round that
+            // has injectors, and can't be rewritten. Injectors that other processors generate in
+            // later rounds can't be added - tell the user, rather than silently dropping them.
+            for (Element method : injectMethods) {
+                error("@Injector methods generated by other processors after "
+                        + getHelperName() + " was written cannot be added to it", method);
+            }
+            return false;
+        }
+        if (injectMethods.isEmpty() && !isAggregating()) {
+            return false;
+        }
+
+        Map<TypeElement, List<InjectorRecord>> injectorMap = collectInjectors(injectMethods);
+        if (mHasErrors) {
+            return false;
         }
 
-        // First find all the methods that are registered as @Injector. This will allow us to map
-        // which class injects which types.
+        // Output the final class.
+        List<TypeElement> fragments = isAggregating()
+                ? findFragments() : Collections.<TypeElement>emptyList();
+        ClassName outputType = ClassName.get(PACKAGE_NAME, getHelperName());
+        JavaFile file = constructClass(outputType, injectorMap, fragments);
+        writeFile(file, "Failed to generate " + outputType.simpleName());
+        ClassName facadeType = ClassName.get(PACKAGE_NAME, getFacadeName(outputType.simpleName()));
+        JavaFile facade = constructFacade(facadeType, outputType, injectorMap, fragments);
+        writeFile(facade, "Failed to generate " + facadeType.simpleName());
+        mHelperWritten = true;
+        return false;
+    }
+
+    private Map<TypeElement, List<InjectorRecord>> collectInjectors(
+            Set<? extends Element> injectMethods) {
+        // Find all the methods that are registered as @Injector. This will allow us to map which
+        // class injects which types.
         Map<TypeElement, List<InjectorRecord>> injectorMap = new LinkedHashMap<>();
         for (ExecutableElement method : ElementFilter.methodsIn(injectMethods)) {
             List<? extends VariableElement> vars = method.getParameters();
-            Preconditions.checkArgument(vars.size() == 1, "Injectors can only take in one object!");
-            TypeElement varType = (TypeElement) mTypeUtils.asElement(vars.get(0).asType());
+            if (vars.size() != 1) {
+                error("Injectors can only take in one object!", method);
+                continue;
+            }
+            TypeMirror varType = vars.get(0).asType();
+            if (varType.getKind() != TypeKind.DECLARED) {
+                error("Injectors can only inject classes!", method);
+                continue;
+            }
+            if (method.getModifiers().contains(Modifier.PRIVATE)) {
+                error("Injectors cannot be private!", method);
+                continue;
+            }
             Injector injector = method.getAnnotation(Injector.class);
+            if (injector.factory() && getConstructibleType(varType) == null) {
+                error("Factories need a concrete class with a no-arg constructor visible to "
+                        + PACKAGE_NAME + "!", method);
+                continue;
+            }
 
             // Insert this into the list for the parent type.
             TypeElement type = (TypeElement) method.getEnclosingElement();
@@ -70,82 +198,164 @@ public final class InjectorProcessor extends BaseProcessor {
                 injected = new ArrayList<>();
                 injectorMap.put(type, injected);
             }
-            injected.add(new InjectorRecord(method.getSimpleName().toString(), varType.asType(),
-                    injector.strict()));
+            injected.add(new InjectorRecord(method.getSimpleName().toString(), varType,
+                    injector.strict(), injector.factory()));
         }
+        return injectorMap;
+    }
 
-        // Output the final class.
-        JavaFile file = constructClass(injectorMap);
-        writeFile(file, "Failed to generate " + GENERATED_CLASS_NAME);
-        return true;
+    private void error(String message, Element element) {
+        mMessager.printMessage(Diagnostic.Kind.ERROR, message, element);
+        mHasErrors = true;
     }
 
-    private JavaFile constructClass(Map<TypeElement, List<InjectorRecord>> injectors) {
-        ClassName outputType = ClassName.get(PACKAGE_NAME, GENERATED_CLASS_NAME);
-        ClassName injectorsClass = ClassName.get(ROOT_PACKAGE, INJECTORS_CLASS_NAME);
+    private boolean isAggregating() {
+        return Boolean.parseBoolean(processingEnv.getOptions().get(OPTION_AGGREGATE));
+    }
+
+    private boolean isPrebuilt() {
+        return Boolean.parseBoolean(processingEnv.getOptions().get(OPTION_PREBUILT));
+    }
+
+    private String getHelperName() {
+        String module = processingEnv.getOptions().get(OPTION_MODULE);
+        if (isAggregating() || module == null || module.isEmpty()) {
+            return GENERATED_CLASS_NAME;
+        }
+
+        // Turn the module name (ie, "feature-network") into a class name prefix.
+        StringBuilder prefix = new StringBuilder();
+        for (String part : module.split("[^A-Za-z0-9]+")) {
+            if (!part.isEmpty()) {
+                prefix.append(Character.toUpperCase(part.charAt(0))).append(part.substring(1));
+            }
+        }
+        if (prefix.length() == 0 || !Character.isJavaIdentifierStart(prefix.charAt(0))) {
+            prefix.insert(0, '_');
+        }
+        return prefix + GENERATED_CLASS_NAME;
+    }
+
+    private int getFacadeLimit() {
+        String limit = processingEnv.getOptions().get(OPTION_FACADE_LIMIT);
+        if (limit == null) {
+            return DEFAULT_FACADE_LIMIT;
+        }
+        try {
+            return Integer.parseInt(limit);
+        } catch (NumberFormatException e) {
+            mMessager.printMessage(Diagnostic.Kind.ERROR,
+                    OPTION_FACADE_LIMIT + " must be a number, but was " + limit);
+            return DEFAULT_FACADE_LIMIT;
+        }
+    }
+
+    private static String getFacadeName(String helperName) {
+        // MarinadeHelper gets Marinade, NetworkMarinadeHelper gets NetworkMarinade and so on.
+        return helperName.substring(0, helperName.length() - "Helper".length());
+    }
 
-        // Generate the instance field builder.
+    private List<TypeElement> findFragments() {
+        // Fragments generated by other modules live in the same package as the helper, and are
+        // visible to us through the classpath.
+        List<TypeElement> fragments = new ArrayList<>();
+        PackageElement generated = mElementUtils.getPackageElement(PACKAGE_NAME);
+        if (generated == null) {
+            return fragments;
+        }
+        for (TypeElement type : ElementFilter.typesIn(generated.getEnclosedElements())) {
+            if (type.getAnnotation(MarinadeFragment.class) != null) {
+                fragments.add(type);
+            }
+        }
+        // Sort the fragments so the generated code is stable regardless of classpath order.
+        fragments.sort(new Comparator<TypeElement>() {
+            @Override
+            public int compare(TypeElement a, TypeElement b) {
+                return a.getQualifiedName().toString().compareTo(b.getQualifiedName().toString());
+            }
+        });
+        return fragments;
+    }
+
+    private JavaFile constructClass(ClassName outputType,
+            Map<TypeElement, List<InjectorRecord>> injectors, List<TypeElement> fragments) {
+        ClassName holderClass = ClassName.get(ROOT_PACKAGE, HOLDER_CLASS_NAME);
+        ClassName registrationClass = ClassName.get(ROOT_PACKAGE, REGISTRATION_CLASS_NAME);
+
+        // Generate the instance field builder. The facade reads the instance and its fields
+        // directly, so they're package private.
         FieldSpec instanceField = FieldSpec.builder(outputType, INSTANCE_NAME)
-                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .addModifiers(Modifier.STATIC, Modifier.VOLATILE)
+                .build();
+        FieldSpec registrationField = FieldSpec.builder(registrationClass, REGISTRATION_NAME)
                 .build();
 
-        // Generate the prepare method builder.
         List<FieldSpec> fields = new ArrayList<>(injectors.keySet().size());
         List<ParameterSpec> params = new ArrayList<>(injectors.keySet().size());
-        MethodSpec.Builder prepareBuilder = MethodSpec.methodBuilder("prepare")
-                .addModifiers(Modifier.PUBLIC, Modifier.STATIC);
 
         // Generate a private constructor builder.
         MethodSpec.Builder constructorBuilder = MethodSpec.constructorBuilder()
                 .addModifiers(Modifier.PRIVATE);
 
-        // Generate the register method builder.
+        // Generate the register method builder. It either registers the table, or atomically
+        // replaces whatever is registered for the same types.
+        ParameterSpec replaceParam = ParameterSpec.builder(TypeName.BOOLEAN, "replace").build();
         MethodSpec.Builder registerBuilder = MethodSpec.methodBuilder("register")
-                .addModifiers(Modifier.PRIVATE);
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(replaceParam)
+                .returns(registrationClass);
 
-        // Generate the inject method builder.
-        ParameterSpec objParam = ParameterSpec.builder(TypeName.OBJECT, "obj").build();
-        MethodSpec.Builder injectBuilder = MethodSpec.methodBuilder("inject")
-                .addModifiers(Modifier.PUBLIC)
-                .addAnnotation(Override.class)
-                .addParameter(objParam);
+        // Each component gets an injector class which switches on the index of the injected
+        // type, so dispatching after the registry lookup is a single jump rather than a cascade
+        // of instanceof checks. Sharing the class between a component's types keeps the number
+        // of generated classes down to the number of components. We register all of the
+        // injectors with Marinator as a single precomputed table.
+        List<TypeSpec> injectorTypes = new ArrayList<>();
+        List<CodeBlock> tableEntries = new ArrayList<>();
+        Set<String> injectorNames = new HashSet<>();
+        Map<String, FieldSpec> holderFields = new LinkedHashMap<>();
 
-        boolean firstArg = true;
         for (TypeElement type : injectors.keySet()) {
             TypeName typeName = TypeName.get(type.asType());
+            TypeName holderName = ParameterizedTypeName.get(holderClass, typeName);
             String rawName = type.getSimpleName().toString();
             String paramName = CaseFormat.UPPER_CAMEL.to(CaseFormat.LOWER_CAMEL, rawName);
 
             // Create a field for the injector.
-            FieldSpec field = FieldSpec.builder(typeName, "m" + rawName)
-                    .addModifiers(Modifier.PRIVATE, Modifier.FINAL)
+            FieldSpec field = FieldSpec.builder(holderName, "m" + rawName)
+                    .addModifiers(Modifier.FINAL)
                     .build();
             fields.add(field);
 
             // Assign the parameter to the field.
             ParameterSpec assign = ParameterSpec.builder(typeName, paramName).build();
             params.add(assign);
+            holderFields.put(paramName, field);
             constructorBuilder.addStatement("$1N = $2N", field, assign);
 
-            // Now walk the relevant classes.
-            for (InjectorRecord record : injectors.get(type)) {
-                String methodName = record.methodName;
-                TypeName mirrorName = TypeName.get(record.mirror);
+            // Now walk the relevant classes. Huge components are split across several injector
+            // classes, to keep each switch under the method size limit.
+            List<InjectorRecord> records = injectors.get(type);
+            for (int start = 0; start < records.size(); start += DISPATCH_CHUNK_SIZE) {
+                List<InjectorRecord> group = records.subList(start,
+                        Math.min(records.size(), start + DISPATCH_CHUNK_SIZE));
+                TypeSpec injectorType = constructInjector(group, holderName,
+                        uniqueInjectorName(type, injectorNames));
+                injectorTypes.add(injectorType);
 
-                // Add the registration statement to the register method.
-                registerBuilder.addStatement("$1T.registerInjector($2T.class, this, $3L)",
-                        injectorsClass, mirrorName, record.strict);
-
-                // Now add the control statement to the inject method.
-                if (firstArg) {
-                    firstArg = false;
-                    injectBuilder.beginControlFlow("if ($1N instanceof $2T)", objParam, mirrorName);
-                } else {
-                    injectBuilder.nextControlFlow("else if ($1N instanceof $2T)", objParam,
-                            mirrorName);
+                // Add the entries to the registration table.
+                for (int i = 0; i < group.size(); i++) {
+                    InjectorRecord record = group.get(i);
+                    int index = tableEntries.size();
+                    tableEntries.add(CodeBlock.builder()
+                            .addStatement("types[$1L] = $2T.class", index,
+                                    TypeName.get(record.mirror))
+                            .addStatement("injectors[$1L] = new $2N(helper.$3N, $4L)", index,
+                                    injectorType, field, i)
+                            .addStatement("strict[$1L] = $2L", index, record.strict)
+                            .build());
                 }
-                injectBuilder.addStatement("$1N.$2N(($3T) $4N)", field, methodName, mirrorName,
-                        objParam);
             }
         }
 
@@ -153,40 +363,669 @@ public final class InjectorProcessor extends BaseProcessor {
         // a stable signature, regardless of the file traversal order.
         params.sort(new ParameterComparator());
 
-        // Finish generating the create method's call to the constructor. We need to know how
-        // many params to pass in to the constructor. We add the parameters for the prepare
-        // method and the constructor here to guarantee their ordering.
-        StringBuilder paramNames = new StringBuilder();
+        // The prepare methods also take the components for every fragment we aggregate, and hand
+        // those on to the fragment. Components shared between modules are only passed in once.
+        Map<String, ParameterSpec> prepareParams = new LinkedHashMap<>();
         for (ParameterSpec spec : params) {
-            constructorBuilder.addParameter(spec);
-            prepareBuilder.addParameter(spec);
-            paramNames.append("$N,");
+            prepareParams.put(spec.name, spec);
+        }
+        Map<TypeElement, String> fragmentArgs = new LinkedHashMap<>();
+        for (TypeElement fragment : fragments) {
+            List<ParameterSpec> fragmentParams = getFragmentParams(fragment);
+            StringBuilder args = new StringBuilder();
+            for (ParameterSpec spec : fragmentParams) {
+                ParameterSpec existing = prepareParams.get(spec.name);
+                if (existing == null) {
+                    prepareParams.put(spec.name, spec);
+                } else if (!existing.type.equals(spec.type)) {
+                    mMessager.printMessage(Diagnostic.Kind.ERROR, "Components " + existing.type
+                            + " and " + spec.type + " share a name across modules", fragment);
+                }
+                args.append(args.length() == 0 ? "" : ", ").append(spec.name);
+            }
+            fragmentArgs.put(fragment, args.toString());
+        }
+        List<ParameterSpec> allParams = new ArrayList<>(prepareParams.values());
+        allParams.sort(new ParameterComparator());
+
+        // Build the arguments for the constructor calls. We add the parameters for the
+        // constructor here to guarantee their ordering.
+        CodeBlock.Builder eagerArgs = CodeBlock.builder();
+        CodeBlock.Builder lazyArgs = CodeBlock.builder();
+        CodeBlock.Builder asyncArgs = CodeBlock.builder();
+        CodeBlock.Builder unboundArgs = CodeBlock.builder();
+        ParameterSpec executorParam = ParameterSpec.builder(Executor.class, "executor").build();
+        for (int i = 0; i < params.size(); i++) {
+            ParameterSpec spec = params.get(i);
+            String separator = i == 0 ? "" : ", ";
+            constructorBuilder.addParameter(
+                    ParameterizedTypeName.get(holderClass, spec.type), spec.name);
+            eagerArgs.add("$1L$2T.of($3N)", separator, holderClass, spec);
+            lazyArgs.add("$1L$2T.lazy($3N)", separator, holderClass, spec);
+            asyncArgs.add("$1L$2T.async($3N, $4N)", separator, holderClass, spec,
+                    executorParam);
+            unboundArgs.add("$1L$2T.unbound()", separator, holderClass);
         }
-        paramNames.deleteCharAt(paramNames.length() - 1);
-        prepareBuilder.addStatement(String.format("%s = new %s(%s)", INSTANCE_NAME,
-                GENERATED_CLASS_NAME, paramNames), params.toArray());
+
+        // Generate the prepare and replace methods. The lazy variants take suppliers, and only
+        // build each component the first time one of its types is injected. The replace variants
+        // atomically swap out components that were already prepared. The async variant registers
+        // the table right away, and builds every component on the given executor - injecting a
+        // type whose component isn't built yet only waits for that one component.
+        List<MethodSpec> prepareMethods = new ArrayList<>();
+        prepareMethods.add(constructPrepare("prepare", false /* lazy */, false /* replace */,
+                null /* executor */, outputType, allParams, fragmentArgs, eagerArgs.build()));
+        prepareMethods.add(constructPrepare("prepareLazy", true /* lazy */, false /* replace */,
+                null /* executor */, outputType, allParams, fragmentArgs, lazyArgs.build()));
+        prepareMethods.add(constructPrepare("prepareAsync", true /* lazy */, false /* replace */,
+                executorParam, outputType, allParams, fragmentArgs, asyncArgs.build()));
+        prepareMethods.add(constructPrepare("replace", false /* lazy */, true /* replace */,
+                null /* executor */, outputType, allParams, fragmentArgs, eagerArgs.build()));
+        prepareMethods.add(constructPrepare("replaceLazy", true /* lazy */, true /* replace */,
+                null /* executor */, outputType, allParams, fragmentArgs, lazyArgs.build()));
 
         // Finalize the methods.
-        constructorBuilder.addStatement("register()");
-        injectBuilder.nextControlFlow("else")
-                .addStatement("$1T clazz = $2N.getClass()", TypeName.get(Class.class), objParam)
-                .addStatement("throw new IllegalArgumentException($S + clazz.getSimpleName())",
-                        "Cannot inject type ")
-                .endControlFlow();
+        List<TypeSpec> tableTypes = constructTable(outputType, tableEntries);
+        ClassName injectorsClass = ClassName.get(ROOT_PACKAGE, INJECTORS_CLASS_NAME);
+        registerBuilder.addCode(constructFill(tableTypes, tableEntries.size(), "this"))
+                .beginControlFlow("if ($1N)", replaceParam)
+                .addStatement("return $1T.replaceInjectors(types, injectors, strict)",
+                        injectorsClass)
+                .endControlFlow()
+                .addStatement("return $1T.registerInjectors(types, injectors, strict)",
+                        injectorsClass);
+
+        List<TypeSpec> prebuiltTypes = new ArrayList<>();
+        if (isPrebuilt()) {
+            ClassName prebuiltType = outputType.nestedClass(PREBUILT_CLASS_NAME);
+            TypeSpec prebuilt = constructPrebuilt(prebuiltType, outputType, tableTypes,
+                    tableEntries.size(), unboundArgs.build());
+            prebuiltTypes.add(prebuilt);
+            prepareMethods.add(constructPreparePrebuilt("preparePrebuilt", false /* lazy */,
+                    outputType, prebuiltType, allParams, fragmentArgs, holderFields,
+                    eagerArgs.build()));
+            prepareMethods.add(constructPreparePrebuilt("preparePrebuiltLazy", true /* lazy */,
+                    outputType, prebuiltType, allParams, fragmentArgs, holderFields,
+                    lazyArgs.build()));
+            List<TypeSpec> buildTimeTypes = new ArrayList<>(injectorTypes);
+            buildTimeTypes.addAll(tableTypes);
+            buildTimeTypes.add(prebuilt);
+            writeNativeImageConfig(outputType, buildTimeTypes, injectors.keySet());
+            for (TypeElement fragment : fragments) {
+                if (!hasMethod(fragment, "preparePrebuilt")) {
+                    mMessager.printMessage(Diagnostic.Kind.ERROR, fragment.getSimpleName()
+                            + " must also be built with " + OPTION_PREBUILT, fragment);
+                }
+            }
+        }
 
         // Generate the overall class and return the file.
-        ClassName injectorInterface = ClassName.get(ROOT_PACKAGE, INJECTORS_CLASS_NAME, "Injector");
-        TypeSpec helper = TypeSpec.classBuilder(outputType)
+        TypeSpec.Builder helper = TypeSpec.classBuilder(outputType)
                 .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
-                .addSuperinterface(injectorInterface)
-                .addMethod(prepareBuilder.build())
+                .addMethods(prepareMethods)
                 .addMethod(constructorBuilder.build())
                 .addMethod(registerBuilder.build())
-                .addMethod(injectBuilder.build())
                 .addFields(fields)
+                .addField(registrationField)
                 .addField(instanceField)
+                .addTypes(injectorTypes)
+                .addTypes(tableTypes)
+                .addTypes(prebuiltTypes);
+        if (!outputType.simpleName().equals(GENERATED_CLASS_NAME)) {
+            helper.addAnnotation(MarinadeFragment.class);
+        }
+        for (TypeElement type : injectors.keySet()) {
+            helper.addOriginatingElement(type);
+        }
+        return JavaFile.builder(PACKAGE_NAME, helper.build()).build();
+    }
+
+    private MethodSpec constructPrepare(String name, boolean lazy, boolean replace,
+            ParameterSpec executor, ClassName outputType, List<ParameterSpec> params,
+            Map<TypeElement, String> fragmentArgs, CodeBlock constructorArgs) {
+        ClassName registrationClass = ClassName.get(ROOT_PACKAGE, REGISTRATION_CLASS_NAME);
+        MethodSpec.Builder builder = MethodSpec.methodBuilder(name)
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .returns(registrationClass);
+        if (executor != null) {
+            builder.addParameter(executor);
+        }
+        ClassName supplierClass = ClassName.get(Supplier.class);
+        for (ParameterSpec spec : params) {
+            if (lazy) {
+                builder.addParameter(ParameterizedTypeName.get(supplierClass, spec.type),
+                        spec.name);
+            } else {
+                builder.addParameter(spec);
+            }
+        }
+
+        // Hand off to each fragment first, then register our own table. Registering fails if any
+        // type is already registered, so a failed prepare closes the fragments it already
+        // prepared again - either everything is registered, or nothing is. A failed replace
+        // leaves them be, since closing them wouldn't bring back what they replaced.
+        boolean rollBack = !replace && !fragmentArgs.isEmpty();
+        StringBuilder parts = new StringBuilder();
+        List<String> partNames = new ArrayList<>();
+        if (rollBack) {
+            for (int i = 0; i < fragmentArgs.size(); i++) {
+                builder.addStatement("$1T fragment$2L = null", registrationClass, i);
+            }
+            builder.addStatement("$1T helper", outputType)
+                    .addStatement("$1T registration", registrationClass)
+                    .addStatement("boolean registered = false")
+                    .beginControlFlow("try");
+        }
+        int index = 0;
+        for (Map.Entry<TypeElement, String> fragment : fragmentArgs.entrySet()) {
+            String part = "fragment" + index++;
+            String args = fragment.getValue();
+            if (executor != null) {
+                args = args.isEmpty() ? executor.name : executor.name + ", " + args;
+            }
+            if (rollBack) {
+                builder.addStatement("$1L = $2T.$3L($4L)", part, fragment.getKey(), name, args);
+            } else {
+                builder.addStatement("$1T $2L = $3T.$4L($5L)", registrationClass, part,
+                        fragment.getKey(), name, args);
+            }
+            parts.append(part).append(", ");
+            partNames.add(part);
+        }
+        if (rollBack) {
+            builder.addStatement("helper = new $1T($2L)", outputType, constructorArgs)
+                    .addStatement("registration = helper.register($1L)", replace)
+                    .addStatement("registered = true")
+                    .nextControlFlow("finally")
+                    .beginControlFlow("if (!registered)");
+            for (int i = partNames.size() - 1; i >= 0; i--) {
+                builder.beginControlFlow("if ($1L != null)", partNames.get(i))
+                        .addStatement("$1L.close()", partNames.get(i))
+                        .endControlFlow();
+            }
+            builder.endControlFlow()
+                    .endControlFlow();
+        } else {
+            builder.addStatement("$1T helper = new $1T($2L)", outputType, constructorArgs)
+                    .addStatement("$1T registration = helper.register($2L)", registrationClass,
+                            replace);
+        }
+        builder.addStatement("helper.$1N = registration", REGISTRATION_NAME)
+                .addStatement("$1N = helper", INSTANCE_NAME);
+        if (parts.length() == 0) {
+            builder.addStatement("return registration");
+        } else {
+            builder.addStatement("return $1T.combine($2Lregistration)", registrationClass, parts);
+        }
+        return builder.build();
+    }
+
+    private List<TypeSpec> constructTable(ClassName outputType, List<CodeBlock> entries) {
+        ClassName injectorInterface = ClassName.get(ROOT_PACKAGE, INJECTORS_CLASS_NAME, "Injector");
+        ParameterSpec helper = ParameterSpec.builder(outputType, "helper").build();
+        ParameterSpec types = ParameterSpec.builder(Class[].class, "types").build();
+        ParameterSpec injectors =
+                ParameterSpec.builder(ArrayTypeName.of(injectorInterface), "injectors").build();
+        ParameterSpec strict = ParameterSpec.builder(boolean[].class, "strict").build();
+
+        // Split the table across as many classes as we need to stay under the method size and
+        // constant pool limits.
+        List<TypeSpec> tables = new ArrayList<>();
+        for (int start = 0; start < entries.size(); start += TABLE_CHUNK_SIZE) {
+            MethodSpec.Builder fillBuilder = MethodSpec.methodBuilder("fill")
+                    .addModifiers(Modifier.STATIC)
+                    .addParameter(helper)
+                    .addParameter(types)
+                    .addParameter(injectors)
+                    .addParameter(strict);
+            int end = Math.min(entries.size(), start + TABLE_CHUNK_SIZE);
+            for (CodeBlock entry : entries.subList(start, end)) {
+                fillBuilder.addCode(entry);
+            }
+            tables.add(TypeSpec.classBuilder("Table" + tables.size())
+                    .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                    .addMethod(fillBuilder.build())
+                    .build());
+        }
+        return tables;
+    }
+
+    /**
+     * Returns the code which declares the types, injectors and strict arrays, and fills them in
+     * for the given helper instance.
+     */
+    private CodeBlock constructFill(List<TypeSpec> tables, int size, String helper) {
+        ClassName injectorInterface = ClassName.get(ROOT_PACKAGE, INJECTORS_CLASS_NAME, "Injector");
+        CodeBlock.Builder code = CodeBlock.builder()
+                .addStatement("$1T[] types = new $1T[$2L]", Class.class, size)
+                .addStatement("$1T[] injectors = new $1T[$2L]", injectorInterface, size)
+                .addStatement("boolean[] strict = new boolean[$1L]", size);
+        for (TypeSpec table : tables) {
+            code.addStatement("$1N.fill($2L, types, injectors, strict)", table, helper);
+        }
+        return code.build();
+    }
+
+    private TypeSpec constructPrebuilt(ClassName prebuiltType, ClassName outputType,
+            List<TypeSpec> tables, int size, CodeBlock unboundArgs) {
+        ClassName injectorsClass = ClassName.get(ROOT_PACKAGE, INJECTORS_CLASS_NAME);
+        ClassName registrationClass = ClassName.get(ROOT_PACKAGE, REGISTRATION_CLASS_NAME);
+        FieldSpec helper = FieldSpec.builder(outputType, "HELPER")
+                .addModifiers(Modifier.STATIC, Modifier.FINAL)
+                .initializer("new $1T($2L)", outputType, unboundArgs)
+                .build();
+        FieldSpec types = FieldSpec.builder(Class[].class, "TYPES")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .build();
+        FieldSpec injectors = FieldSpec.builder(
+                ArrayTypeName.of(ClassName.get(ROOT_PACKAGE, INJECTORS_CLASS_NAME, "Injector")),
+                "INJECTORS")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .build();
+        FieldSpec strict = FieldSpec.builder(boolean[].class, "STRICT")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .build();
+        FieldSpec claimed = FieldSpec.builder(TypeName.BOOLEAN, "sClaimed")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .build();
+
+        // Only builds the table. Registering it here would tie the class's initialization to
+        // whatever happens to be registered at the time, and a failed initializer can never be
+        // retried.
+        CodeBlock init = CodeBlock.builder()
+                .add(constructFill(tables, size, helper.name))
+                .addStatement("$1N = types", types)
+                .addStatement("$1N = injectors", injectors)
+                .addStatement("$1N = strict", strict)
+                .build();
+        MethodSpec claim = MethodSpec.methodBuilder("claim")
+                .addJavadoc("Registers the table with the current registry for the first caller"
+                        + " only, which then gets\nto bind its components. Returns null once the"
+                        + " table has been claimed. If registering\nfails, the table is left"
+                        + " unclaimed.\n")
+                .addModifiers(Modifier.STATIC, Modifier.SYNCHRONIZED)
+                .returns(registrationClass)
+                .beginControlFlow("if ($1N)", claimed)
+                .addStatement("return null")
+                .endControlFlow()
+                .addStatement("$1T registration = $2T.registerInjectors($3N, $4N, $5N)",
+                        registrationClass, injectorsClass, types, injectors, strict)
+                .addStatement("$1N.$2N = registration", helper, REGISTRATION_NAME)
+                .addStatement("$1N = true", claimed)
+                .addStatement("return registration")
+                .build();
+        return TypeSpec.classBuilder(prebuiltType)
+                .addJavadoc("The helper and its table, built when this class is initialized - at"
+                        + " image build\ntime, when built with native-image.\n")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .addField(helper)
+                .addField(types)
+                .addField(injectors)
+                .addField(strict)
+                .addField(claimed)
+                .addStaticBlock(init)
+                .addMethod(claim)
+                .build();
+    }
+
+    private MethodSpec constructPreparePrebuilt(String name, boolean lazy, ClassName outputType,
+            ClassName prebuiltType, List<ParameterSpec> params,
+            Map<TypeElement, String> fragmentArgs, Map<String, FieldSpec> holderFields,
+            CodeBlock constructorArgs) {
+        ClassName registrationClass = ClassName.get(ROOT_PACKAGE, REGISTRATION_CLASS_NAME);
+        MethodSpec.Builder builder = MethodSpec.methodBuilder(name)
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .returns(registrationClass);
+        ClassName supplierClass = ClassName.get(Supplier.class);
+        for (ParameterSpec spec : params) {
+            if (lazy) {
+                builder.addParameter(ParameterizedTypeName.get(supplierClass, spec.type),
+                        spec.name);
+            } else {
+                builder.addParameter(spec);
+            }
+        }
+
+        // Just like prepare, close the fragments again if our own table fails to register.
+        boolean rollBack = !fragmentArgs.isEmpty();
+        StringBuilder parts = new StringBuilder();
+        List<String> partNames = new ArrayList<>();
+        if (rollBack) {
+            for (int i = 0; i < fragmentArgs.size(); i++) {
+                builder.addStatement("$1T fragment$2L = null", registrationClass, i);
+            }
+            builder.addStatement("$1T helper", outputType)
+                    .addStatement("$1T registration", registrationClass)
+                    .addStatement("boolean registered = false")
+                    .beginControlFlow("try");
+        }
+        int index = 0;
+        for (Map.Entry<TypeElement, String> fragment : fragmentArgs.entrySet()) {
+            String part = "fragment" + index++;
+            builder.addStatement("$1L = $2T.$3L($4L)", part, fragment.getKey(), name,
+                    fragment.getValue());
+            parts.append(part).append(", ");
+            partNames.add(part);
+        }
+        // The first prepare registers the prebuilt table and binds its components. Once it's been
+        // claimed - ie, after a clear, or inside Marinator.override() - build and register a new
+        // table just like prepare does. Either way, types that are already registered fail.
+        if (rollBack) {
+            builder.addStatement("registration = $1T.claim()", prebuiltType);
+        } else {
+            builder.addStatement("$1T helper", outputType)
+                    .addStatement("$1T registration = $2T.claim()", registrationClass,
+                            prebuiltType);
+        }
+        builder.beginControlFlow("if (registration != null)")
+                .addStatement("helper = $1T.HELPER", prebuiltType);
+        for (Map.Entry<String, FieldSpec> holder : holderFields.entrySet()) {
+            builder.addStatement("helper.$1N.$2L($3L)", holder.getValue(),
+                    lazy ? "bindLazy" : "bind", holder.getKey());
+        }
+        builder.nextControlFlow("else")
+                .addStatement("helper = new $1T($2L)", outputType, constructorArgs)
+                .addStatement("registration = helper.register(false)")
+                .addStatement("helper.$1N = registration", REGISTRATION_NAME)
+                .endControlFlow();
+        if (rollBack) {
+            builder.addStatement("registered = true")
+                    .nextControlFlow("finally")
+                    .beginControlFlow("if (!registered)");
+            for (int i = partNames.size() - 1; i >= 0; i--) {
+                builder.beginControlFlow("if ($1L != null)", partNames.get(i))
+                        .addStatement("$1L.close()", partNames.get(i))
+                        .endControlFlow();
+            }
+            builder.endControlFlow()
+                    .endControlFlow();
+        }
+        builder.addStatement("$1N = helper", INSTANCE_NAME);
+        if (parts.length() == 0) {
+            builder.addStatement("return registration");
+        } else {
+            builder.addStatement("return $1T.combine($2Lregistration)", registrationClass, parts);
+        }
+        return builder.build();
+    }
+
+    private static boolean hasMethod(TypeElement type, String name) {
+        for (ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+            if (method.getSimpleName().contentEquals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void writeNativeImageConfig(ClassName outputType, List<TypeSpec> generatedTypes,
+            Set<TypeElement> components) {
+        // native-image picks up every native-image.properties under META-INF/native-image. The
+        // prebuilt table has to be initialized at build time, along with the classes of
+        // everything it holds - the helper, its injectors and component holders. List them
+        // individually, so nothing else under the same packages is affected.
+        StringBuilder classes = new StringBuilder();
+        for (String name : BUILD_TIME_CLASSES) {
+            classes.append(ROOT_PACKAGE).append('.').append(name).append(',');
+        }
+        classes.append(outputType.toString());
+        for (TypeSpec type : generatedTypes) {
+            classes.append(',').append(outputType.toString()).append('$').append(type.name);
+        }
+
+        String path = "META-INF/native-image/" + ROOT_PACKAGE + "/" + outputType.simpleName()
+                + "/native-image.properties";
+        try (Writer writer = mFiler.createResource(StandardLocation.CLASS_OUTPUT, "", path,
+                components.toArray(new Element[components.size()])).openWriter()) {
+            writer.write("Args = --initialize-at-build-time=" + classes + "\n");
+        } catch (IOException e) {
+            mMessager.printMessage(Diagnostic.Kind.ERROR,
+                    "Failed to write native-image configuration: " + e.getMessage());
+        }
+    }
+
+    private List<ParameterSpec> getFragmentParams(TypeElement fragment) {
+        // Parameter names aren't reliably available from class files, so rebuild them from the
+        // component types the same way we name our own parameters.
+        List<ParameterSpec> params = new ArrayList<>();
+        for (ExecutableElement method : ElementFilter.methodsIn(fragment.getEnclosedElements())) {
+            if (!method.getSimpleName().contentEquals("prepare")) {
+                continue;
+            }
+            for (VariableElement param : method.getParameters()) {
+                String rawName = mTypeUtils.asElement(param.asType()).getSimpleName().toString();
+                String paramName = CaseFormat.UPPER_CAMEL.to(CaseFormat.LOWER_CAMEL, rawName);
+                params.add(ParameterSpec.builder(TypeName.get(param.asType()), paramName).build());
+            }
+        }
+        return params;
+    }
+
+    private JavaFile constructFacade(ClassName facadeType, ClassName helperType,
+            Map<TypeElement, List<InjectorRecord>> injectors, List<TypeElement> fragments) {
+        ClassName injectorsClass = ClassName.get(ROOT_PACKAGE, INJECTORS_CLASS_NAME);
+        TypeSpec.Builder facade = TypeSpec.classBuilder(facadeType)
+                .addJavadoc("Typed entry points for injecting the types served by {@link $1T}.\n"
+                        + "Each overload calls the component directly while the helper's\n"
+                        + "registration is still in effect, and otherwise falls back to\n"
+                        + "{@link $2T#inject}.\n", helperType, injectorsClass)
+                .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                .addMethod(MethodSpec.constructorBuilder()
+                        .addModifiers(Modifier.PRIVATE)
+                        .build());
+
+        // A type registered twice fails at runtime anyway, so only generate its first overload.
+        Set<String> seen = new HashSet<>();
+        for (TypeElement type : injectors.keySet()) {
+            String field = "m" + type.getSimpleName();
+            for (InjectorRecord record : injectors.get(type)) {
+                TypeName mirrorName = TypeName.get(record.mirror);
+                if (!seen.add(mirrorName.toString())) {
+                    continue;
+                }
+                // The registry matches on the exact runtime class, so a subclass passed in here
+                // has to go through the registry to find its own injector.
+                ParameterSpec objParam = ParameterSpec.builder(mirrorName, "obj").build();
+                facade.addMethod(MethodSpec.methodBuilder("inject")
+                        .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                        .addParameter(objParam)
+                        .addStatement("$1T helper = $1T.$2N", helperType, INSTANCE_NAME)
+                        .beginControlFlow("if (helper != null && $1N.getClass() == $2T.class"
+                                + " && helper.$3N.canBypassRegistry())", objParam,
+                                TypeName.get(mTypeUtils.erasure(record.mirror)),
+                                REGISTRATION_NAME)
+                        .addStatement("helper.$1N.get().$2N($3N)", field, record.methodName,
+                                objParam)
+                        .addStatement("return")
+                        .endControlFlow()
+                        .addStatement("$1T.inject($2N)", injectorsClass, objParam)
+                        .build());
+            }
+        }
+
+        // Hand the types served by each aggregated fragment on to the fragment's own facade.
+        for (TypeElement fragment : fragments) {
+            TypeElement fragmentFacade = mElementUtils.getTypeElement(PACKAGE_NAME + "."
+                    + getFacadeName(fragment.getSimpleName().toString()));
+            if (fragmentFacade == null) {
+                continue;
+            }
+            for (ExecutableElement method
+                    : ElementFilter.methodsIn(fragmentFacade.getEnclosedElements())) {
+                if (!method.getSimpleName().contentEquals("inject")
+                        || !method.getModifiers().contains(Modifier.STATIC)
+                        || method.getParameters().size() != 1) {
+                    continue;
+                }
+                TypeName paramType = TypeName.get(method.getParameters().get(0).asType());
+                if (!seen.add(paramType.toString())) {
+                    continue;
+                }
+                facade.addMethod(MethodSpec.methodBuilder("inject")
+                        .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                        .addParameter(paramType, "obj")
+                        .addStatement("$1T.inject(obj)", fragmentFacade)
+                        .build());
+            }
+        }
+
+        // Over the limit, keep generating the facade so that callers still compile, but with a
+        // single overload that goes through the registry.
+        int limit = getFacadeLimit();
+        if (seen.size() > limit) {
+            mMessager.printMessage(Diagnostic.Kind.WARNING, facadeType.simpleName() + " has "
+                    + seen.size() + " types, over the limit of " + limit + " set by "
+                    + OPTION_FACADE_LIMIT + ", so it only has a single inject(Object) that looks"
+                    + " every type up in the registry. Raise " + OPTION_FACADE_LIMIT
+                    + " to generate typed overloads.");
+            facade = TypeSpec.classBuilder(facadeType)
+                    .addJavadoc("Entry point for injecting the types served by {@link $1T}.\n"
+                            + "There are too many types for typed overloads, so this always\n"
+                            + "calls {@link $2T#inject}.\n", helperType, injectorsClass)
+                    .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                    .addMethod(MethodSpec.constructorBuilder()
+                            .addModifiers(Modifier.PRIVATE)
+                            .build())
+                    .addMethod(MethodSpec.methodBuilder("inject")
+                            .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                            .addParameter(TypeName.OBJECT, "obj")
+                            .addStatement("$1T.inject(obj)", injectorsClass)
+                            .build());
+        }
+        for (TypeElement type : injectors.keySet()) {
+            facade.addOriginatingElement(type);
+        }
+        return JavaFile.builder(PACKAGE_NAME, facade.build()).build();
+    }
+
+    private TypeSpec constructInjector(List<InjectorRecord> records, TypeName holderName,
+            String injectorName) {
+        ClassName injectorInterface = ClassName.get(ROOT_PACKAGE, INJECTORS_CLASS_NAME, "Injector");
+
+        FieldSpec component = FieldSpec.builder(holderName, "mComponent")
+                .addModifiers(Modifier.PRIVATE, Modifier.FINAL)
                 .build();
-        return JavaFile.builder(PACKAGE_NAME, helper).build();
+        FieldSpec index = FieldSpec.builder(TypeName.INT, "mIndex")
+                .addModifiers(Modifier.PRIVATE, Modifier.FINAL)
+                .build();
+        ParameterSpec componentParam = ParameterSpec.builder(holderName, "component").build();
+        ParameterSpec indexParam = ParameterSpec.builder(TypeName.INT, "index").build();
+        MethodSpec constructor = MethodSpec.constructorBuilder()
+                .addParameter(componentParam)
+                .addParameter(indexParam)
+                .addStatement("$1N = $2N", component, componentParam)
+                .addStatement("$1N = $2N", index, indexParam)
+                .build();
+
+        // The registry only hands us objects of the registered type (or a subclass, for loose
+        // injection), so the casts here cannot fail. Fetching the component builds it if it was
+        // prepared lazily.
+        ParameterSpec objParam = ParameterSpec.builder(TypeName.OBJECT, "obj").build();
+        MethodSpec.Builder inject = MethodSpec.methodBuilder("inject")
+                .addModifiers(Modifier.PUBLIC)
+                .addAnnotation(Override.class)
+                .addParameter(objParam)
+                .beginControlFlow("switch ($1N)", index);
+        for (int i = 0; i < records.size(); i++) {
+            InjectorRecord record = records.get(i);
+            inject.addCode("case $1L:\n", i)
+                    .addCode("$>")
+                    .addStatement("$1N.get().$2N(($3T) $4N)", component, record.methodName,
+                            TypeName.get(record.mirror), objParam)
+                    .addStatement("return")
+                    .addCode("$<");
+        }
+        inject.addCode("default:\n")
+                .addCode("$>")
+                .addStatement("throw new $1T($2S + $3N)", IllegalStateException.class,
+                        "Unknown injector index ", index)
+                .addCode("$<")
+                .endControlFlow();
+
+        TypeSpec.Builder builder = TypeSpec.classBuilder(injectorName)
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .addSuperinterface(injectorInterface)
+                .addField(component)
+                .addField(index)
+                .addMethod(constructor)
+                .addMethod(inject.build());
+
+        // Types whose injector asks for a factory can be created and injected in a single call
+        // without reflection. This is opt-in, since we can't tell whether a constructor already
+        // injects the object itself.
+        MethodSpec.Builder newInstance = MethodSpec.methodBuilder("newInstance")
+                .addModifiers(Modifier.PUBLIC)
+                .addAnnotation(Override.class)
+                .returns(TypeName.OBJECT)
+                .beginControlFlow("switch ($1N)", index);
+        boolean constructible = false;
+        for (int i = 0; i < records.size(); i++) {
+            InjectorRecord record = records.get(i);
+            TypeElement type = record.factory ? getConstructibleType(record.mirror) : null;
+            if (type == null) {
+                continue;
+            }
+            constructible = true;
+            newInstance.addCode("case $1L: {\n", i)
+                    .addCode("$>")
+                    .addStatement("$1T obj = new $1T()", ClassName.get(type))
+                    .addStatement("$1N.get().$2N(obj)", component, record.methodName)
+                    .addStatement("return obj")
+                    .addCode("$<")
+                    .addCode("}\n");
+        }
+        newInstance.addCode("default:\n")
+                .addCode("$>")
+                .addStatement("return null")
+                .addCode("$<")
+                .endControlFlow();
+        if (constructible) {
+            builder.addSuperinterface(ClassName.get(ROOT_PACKAGE, INJECTORS_CLASS_NAME, "Factory"))
+                    .addMethod(newInstance.build());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the class if the generated code can construct it directly - a concrete top-level or
+     * static nested class, with a no-arg constructor visible from the generated package.
+     * Otherwise, returns null.
+     */
+    private TypeElement getConstructibleType(TypeMirror mirror) {
+        if (mirror.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        TypeElement type = (TypeElement) processingEnv.getTypeUtils().asElement(mirror);
+        Set<Modifier> modifiers = type.getModifiers();
+        if (type.getKind() != ElementKind.CLASS || modifiers.contains(Modifier.ABSTRACT)
+                || (type.getNestingKind().isNested() && !modifiers.contains(Modifier.STATIC))) {
+            return null;
+        }
+        for (ExecutableElement constructor
+                : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (!constructor.getParameters().isEmpty() || !constructor.getThrownTypes().isEmpty()) {
+                continue;
+            }
+            Set<Modifier> access = constructor.getModifiers();
+            boolean samePackage = processingEnv.getElementUtils().getPackageOf(type)
+                    .getQualifiedName().contentEquals(PACKAGE_NAME);
+            if (access.contains(Modifier.PUBLIC)
+                    || (samePackage && !access.contains(Modifier.PRIVATE))) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    private String uniqueInjectorName(TypeElement component, Set<String> usedNames) {
+        // Components in different packages may share a simple name, and huge components get
+        // several injectors, so disambiguate those.
+        String baseName = component.getSimpleName() + "Injector";
+        String name = baseName;
+        for (int i = 2; !usedNames.add(name); i++) {
+            name = baseName + i;
+        }
+        return name;
     }
 
     /**
@@ -196,11 +1035,14 @@ public final class InjectorProcessor extends BaseProcessor {
         public final String methodName;
         public final TypeMirror mirror;
         public final boolean strict;
+        public final boolean factory;
 
-        public InjectorRecord(String methodName, TypeMirror mirror, boolean strict) {
+        public InjectorRecord(String methodName, TypeMirror mirror, boolean strict,
+                boolean factory) {
             this.methodName = methodName;
             this.mirror = mirror;
             this.strict = strict;
+            this.factory = factory;
         }
     }
 
@@ -8,7 +8,7 @@ import com.blueapron.marinator.test.models.AppObject2;
  * Component to test injection.
  */
 public class AppComponent {
-    @Injector
+    @Injector(factory = true)
     public void inject(AppObject1 obj) {
         obj.injected = true;
     }
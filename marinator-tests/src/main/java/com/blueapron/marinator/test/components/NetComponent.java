@@ -13,7 +13,7 @@ public class NetComponent {
         obj.injected = true;
     }
 
-    @Injector
+    @Injector(factory = true)
     public void provide(NetObject2 obj) {
         obj.injected = true;
     }
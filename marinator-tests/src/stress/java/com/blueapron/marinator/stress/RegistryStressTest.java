@@ -0,0 +1,352 @@
+package com.blueapron.marinator.stress;
+
+import com.blueapron.marinator.Marinator;
+import com.blueapron.marinator.MarinatorRegistry;
+import com.blueapron.marinator.Registration;
+import com.blueapron.marinator.generated.Marinade;
+import com.blueapron.marinator.generated.MarinadeHelper;
+import com.blueapron.marinator.test.components.AppComponent;
+import com.blueapron.marinator.test.components.BananaComponent;
+import com.blueapron.marinator.test.components.NetComponent;
+import com.blueapron.marinator.test.components.ZebraComponent;
+import com.blueapron.marinator.test.models.AppObject1;
+import com.blueapron.marinator.test.models.NetObject2;
+import com.blueapron.marinator.test.models.OkapiObject;
+import com.blueapron.marinator.test.models.ZebraObject;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Hammers registries from many threads at once, checking that injection never observes a torn or
+ * half-registered state. Every test prints the throughput of each actor, so changes to the
+ * registry's concurrency can be checked for both safety and speed.
+ *
+ * Run with {@code ./gradlew :marinator-tests:stressTest [-PstressMillis=<millis>]}.
+ */
+public class RegistryStressTest {
+
+    private static final int THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    private static final Class[] TABLE = { First.class, Second.class, Third.class };
+
+    @After
+    public void tearDown() {
+        Marinator.clear();
+    }
+
+    @Test
+    public void testTableReplacementIsAtomic() throws InterruptedException {
+        final MarinatorRegistry registry = new MarinatorRegistry();
+        final int[] generation = new int[1];
+        final Registration[] registration = { registry.registerInjectors(TABLE,
+                injectorsFor(0), new boolean[TABLE.length]) };
+        final ThreadLocal<int[]> lastSeen = new ThreadLocal<int[]>() {
+            @Override
+            protected int[] initialValue() {
+                return new int[1];
+            }
+        };
+
+        new StressRunner("tableReplacement")
+                .add("replace", 1, new StressRunner.Actor() {
+                    @Override
+                    public void act(int thread) {
+                        int next = ++generation[0];
+                        if (next % 16 == 0) {
+                            // Removing the whole table must be just as atomic as replacing it.
+                            registration[0].close();
+                        }
+                        registration[0] = registry.replaceInjectors(TABLE, injectorsFor(next),
+                                new boolean[TABLE.length]);
+                    }
+                })
+                .add("injectAll", THREADS, new StressRunner.Actor() {
+                    @Override
+                    public void act(int thread) {
+                        Stamped[] batch = { new First(), new Second(), new Third() };
+                        try {
+                            registry.injectAll(batch);
+                        } catch (IllegalStateException e) {
+                            // The table may be missing entirely, but never partially.
+                            check(e.getMessage().endsWith("at index 0"),
+                                    "Saw a partially removed table: " + e.getMessage());
+                            return;
+                        }
+                        int seen = batch[0].mGeneration;
+                        for (Stamped stamped : batch) {
+                            check(stamped.mGeneration == seen, "Saw a partially replaced table");
+                        }
+                        int[] last = lastSeen.get();
+                        check(seen >= last[0], "Saw generation " + seen + " after " + last[0]);
+                        last[0] = seen;
+                    }
+                })
+                .run();
+    }
+
+    @Test
+    public void testRegisterUnregisterAndClear() throws InterruptedException {
+        stressRegisterUnregisterAndClear("registerUnregisterClear", new MarinatorRegistry());
+    }
+
+    @Test
+    public void testWeakRegisterUnregisterAndClear() throws InterruptedException {
+        stressRegisterUnregisterAndClear("weakRegisterUnregisterClear",
+                MarinatorRegistry.newWeakRegistry());
+    }
+
+    @Test
+    public void testPrepareWhileInjecting() throws InterruptedException {
+        MarinadeHelper.prepare(new AppComponent(), new BananaComponent(), new NetComponent(),
+                new ZebraComponent());
+
+        new StressRunner("prepareWhileInjecting")
+                .add("replace", 1, new StressRunner.Actor() {
+                    @Override
+                    public void act(int thread) {
+                        MarinadeHelper.replace(new AppComponent(), new BananaComponent(),
+                                new NetComponent(), new ZebraComponent());
+                    }
+                })
+                .add("inject", THREADS, new StressRunner.Actor() {
+                    @Override
+                    public void act(int thread) {
+                        // Replacing never leaves a type without an injector, whether it's
+                        // injected through the facade, strictly, or loosely.
+                        AppObject1 app = new AppObject1();
+                        Marinade.inject(app);
+                        check(app.injected, "AppObject1 was not injected");
+
+                        NetObject2 net = new NetObject2();
+                        Marinator.inject(net);
+                        check(net.injected, "NetObject2 was not injected");
+
+                        OkapiObject okapi = new OkapiObject();
+                        Marinator.inject(okapi);
+                        check(((ZebraObject) okapi).injected, "OkapiObject was not injected");
+                    }
+                })
+                .run();
+    }
+
+    @Test
+    public void testLazyPrepareWhileInjecting() throws InterruptedException {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final int[] generation = new int[1];
+        final Registration[] registration = new Registration[1];
+        final AtomicInteger[] created = { new AtomicInteger() };
+
+        try {
+            new StressRunner("lazyPrepareWhileInjecting")
+                    .add("prepare", 1, new StressRunner.Actor() {
+                        @Override
+                        public void act(int thread) throws InterruptedException {
+                            if (registration[0] != null) {
+                                registration[0].close();
+                            }
+                            // However many threads race to get a lazy component first, its
+                            // supplier is only ever called once.
+                            check(created[0].get() <= 4, "Components were created "
+                                    + created[0].get() + " times");
+                            AtomicInteger count = new AtomicInteger();
+                            created[0] = count;
+                            switch (generation[0]++ % 3) {
+                                case 0:
+                                    registration[0] = MarinadeHelper.prepare(new AppComponent(),
+                                            new BananaComponent(), new NetComponent(),
+                                            new ZebraComponent());
+                                    break;
+                                case 1:
+                                    registration[0] = MarinadeHelper.prepareLazy(
+                                            counting(AppComponent.class, count),
+                                            counting(BananaComponent.class, count),
+                                            counting(NetComponent.class, count),
+                                            counting(ZebraComponent.class, count));
+                                    break;
+                                default:
+                                    registration[0] = MarinadeHelper.prepareAsync(executor,
+                                            counting(AppComponent.class, count),
+                                            counting(BananaComponent.class, count),
+                                            counting(NetComponent.class, count),
+                                            counting(ZebraComponent.class, count));
+                                    break;
+                            }
+                            // Leave the components unbuilt long enough for injections to pile up.
+                            Thread.sleep(1);
+                        }
+                    })
+                    .add("inject", THREADS, new StressRunner.Actor() {
+                        @Override
+                        public void act(int thread) {
+                            // Types may be missing between registrations, but once an injector
+                            // is found it always hands over a fully built component.
+                            AppObject1 app = new AppObject1();
+                            try {
+                                Marinade.inject(app);
+                                check(app.injected, "AppObject1 was not injected");
+                            } catch (IllegalStateException e) {
+                                checkMissing(e);
+                            }
+                            NetObject2 net = new NetObject2();
+                            try {
+                                Marinator.inject(net);
+                                check(net.injected, "NetObject2 was not injected");
+                            } catch (IllegalStateException e) {
+                                checkMissing(e);
+                            }
+                            OkapiObject okapi = new OkapiObject();
+                            try {
+                                Marinator.inject(okapi);
+                                check(((ZebraObject) okapi).injected,
+                                        "OkapiObject was not injected");
+                            } catch (IllegalStateException e) {
+                                checkMissing(e);
+                            }
+                        }
+                    })
+                    .run();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void stressRegisterUnregisterAndClear(String name,
+            final MarinatorRegistry registry) throws InterruptedException {
+        final Class[] types = { First.class, Second.class, Third.class, Fourth.class };
+        final Marinator.Injector base = new CheckingInjector(Stamped.class, 0);
+        registry.registerInjector(Stamped.class, base, false /* strict */);
+
+        new StressRunner(name)
+                .add("register", types.length, new StressRunner.Actor() {
+                    @Override
+                    public void act(int thread) {
+                        // Each thread owns one type, so registering can only fail if a stale
+                        // registration was left behind.
+                        Class type = types[thread];
+                        registry.registerInjector(type, new CheckingInjector(type, 1),
+                                true /* strict */);
+                        registry.unregisterInjector(type);
+                    }
+                })
+                .add("clear", 1, new StressRunner.Actor() {
+                    @Override
+                    public void act(int thread) throws InterruptedException {
+                        registry.clear();
+                        registry.registerInjector(Stamped.class, base, false /* strict */);
+                        Thread.sleep(1);
+                    }
+                })
+                .add("inject", THREADS, new StressRunner.Actor() {
+                    @Override
+                    public void act(int thread) {
+                        Stamped stamped = newStamped(ThreadLocalRandom.current().nextInt(4));
+                        try {
+                            registry.inject(stamped);
+                        } catch (IllegalStateException e) {
+                            // Cleared, and the base injector hasn't been registered again yet.
+                            check(e.getMessage().startsWith("No injector for type"),
+                                    "Unexpected failure: " + e);
+                            return;
+                        }
+                        check(stamped.mGeneration >= 0, "Object was not injected");
+                    }
+                })
+                .run();
+    }
+
+    private static void checkMissing(IllegalStateException e) {
+        check(e.getMessage().startsWith("No injector for type"), "Unexpected failure: " + e);
+    }
+
+    /**
+     * Supplies a new component of the given type, counting every time it's called. Building the
+     * component takes a moment, just like a real one would, so other threads race to get it.
+     */
+    private static <T> Supplier<T> counting(final Class<T> type, final AtomicInteger created) {
+        return new Supplier<T>() {
+            @Override
+            public T get() {
+                created.incrementAndGet();
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+                try {
+                    return type.getDeclaredConstructor().newInstance();
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+    }
+
+    private static Marinator.Injector[] injectorsFor(int generation) {
+        Marinator.Injector[] injectors = new Marinator.Injector[TABLE.length];
+        for (int i = 0; i < TABLE.length; i++) {
+            injectors[i] = new CheckingInjector(TABLE[i], generation);
+        }
+        return injectors;
+    }
+
+    private static Stamped newStamped(int index) {
+        switch (index) {
+            case 0:
+                return new First();
+            case 1:
+                return new Second();
+            case 2:
+                return new Third();
+            default:
+                return new Fourth();
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    /**
+     * Stamps each object with its generation, after checking it's only ever handed objects of
+     * the type it was registered for - a stale lookup would show up as the wrong type.
+     */
+    private static final class CheckingInjector implements Marinator.Injector {
+        private final Class mType;
+        private final int mGeneration;
+
+        CheckingInjector(Class type, int generation) {
+            mType = type;
+            mGeneration = generation;
+        }
+
+        @Override
+        public void inject(Object obj) {
+            check(mType.isInstance(obj), mType.getSimpleName() + " injector was handed "
+                    + obj.getClass().getSimpleName());
+            ((Stamped) obj).mGeneration = mGeneration;
+        }
+    }
+
+    private static class Stamped {
+        int mGeneration = -1;
+    }
+
+    private static final class First extends Stamped {
+    }
+
+    private static final class Second extends Stamped {
+    }
+
+    private static final class Third extends Stamped {
+    }
+
+    private static final class Fourth extends Stamped {
+    }
+}
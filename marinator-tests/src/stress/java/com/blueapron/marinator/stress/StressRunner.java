@@ -0,0 +1,106 @@
+package com.blueapron.marinator.stress;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs a set of actors concurrently for a fixed amount of time, in the spirit of jcstress. Each
+ * actor is run in a loop on its own thread until time runs out or any actor fails. Afterwards,
+ * the first failure (if any) is rethrown and the throughput of each actor is printed.
+ *
+ * The duration defaults to two seconds, and can be changed with the
+ * {@code marinator.stress.millis} system property.
+ */
+final class StressRunner {
+
+    private static final long DEFAULT_MILLIS = 2000;
+
+    private final String mName;
+    private final Map<String, Actor> mActors = new LinkedHashMap<>();
+    private final Map<String, Integer> mThreads = new LinkedHashMap<>();
+
+    StressRunner(String name) {
+        mName = name;
+    }
+
+    /**
+     * Adds an actor, run concurrently on the given number of threads.
+     */
+    StressRunner add(String name, int threads, Actor actor) {
+        mActors.put(name, actor);
+        mThreads.put(name, threads);
+        return this;
+    }
+
+    void run() throws InterruptedException {
+        long millis = Long.getLong("marinator.stress.millis", DEFAULT_MILLIS);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final long[] deadline = new long[1];
+        List<Thread> threads = new ArrayList<>();
+        Map<String, AtomicLong> counts = new LinkedHashMap<>();
+
+        for (Map.Entry<String, Actor> entry : mActors.entrySet()) {
+            final Actor actor = entry.getValue();
+            final AtomicLong count = new AtomicLong();
+            counts.put(entry.getKey(), count);
+            for (int i = 0; i < mThreads.get(entry.getKey()); i++) {
+                final int index = i;
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        long ops = 0;
+                        try {
+                            start.await();
+                            while (failure.get() == null && System.nanoTime() < deadline[0]) {
+                                actor.act(index);
+                                ops++;
+                            }
+                        } catch (Throwable t) {
+                            failure.compareAndSet(null, t);
+                        } finally {
+                            count.addAndGet(ops);
+                        }
+                    }
+                }, mName + "-" + entry.getKey() + "-" + i);
+                threads.add(thread);
+                thread.start();
+            }
+        }
+
+        // The latch publishes the deadline to every actor thread.
+        deadline[0] = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Throwable error = failure.get();
+        if (error != null) {
+            throw new AssertionError(mName + " failed", error);
+        }
+        StringBuilder report = new StringBuilder(mName).append(':');
+        for (Map.Entry<String, AtomicLong> entry : counts.entrySet()) {
+            report.append(String.format(Locale.US, " %s %,d ops/s", entry.getKey(),
+                    entry.getValue().get() * 1000 / millis));
+        }
+        System.out.println(report);
+    }
+
+    /**
+     * A single operation performed repeatedly by each of an actor's threads.
+     */
+    interface Actor {
+        /**
+         * @param thread The index of the calling thread among this actor's threads.
+         */
+        void act(int thread) throws Exception;
+    }
+}
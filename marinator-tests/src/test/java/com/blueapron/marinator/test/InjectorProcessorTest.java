@@ -0,0 +1,483 @@
+package com.blueapron.marinator.test;
+
+import com.blueapron.marinator.Marinator;
+import com.blueapron.marinator.MarinatorRegistry;
+import com.blueapron.marinator.processor.InjectorProcessor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the InjectorProcessor, run through an in-process compiler.
+ */
+public class InjectorProcessorTest {
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void testHelperIsVisibleToAppCode() {
+        // App code refers to the generated classes, so they have to exist by the next round.
+        List<String> errors = errors(compile(
+                Arrays.asList(
+                        source("test.EarlyObject", "package test;\n"
+                                + "public class EarlyObject {\n"
+                                + "  public EarlyObject() {\n"
+                                + "    com.blueapron.marinator.generated.Marinade.inject(this);\n"
+                                + "  }\n"
+                                + "}"),
+                        source("test.EarlyComponent", "package test;\n"
+                                + "public class EarlyComponent {\n"
+                                + "  @com.blueapron.marinator.Injector\n"
+                                + "  public void inject(EarlyObject obj) {}\n"
+                                + "}"),
+                        source("test.App", "package test;\n"
+                                + "public class App {\n"
+                                + "  static void prepare() {\n"
+                                + "    com.blueapron.marinator.generated.MarinadeHelper.prepare(\n"
+                                + "        new EarlyComponent());\n"
+                                + "  }\n"
+                                + "}")),
+                new InjectorProcessor()));
+        assertThat(errors).isEmpty();
+    }
+
+    @Test
+    public void testInjectorsFromLaterRoundsAreReported() {
+        List<String> errors = errors(compile(
+                Arrays.asList(
+                        source("test.EarlyObject", "package test; public class EarlyObject {}"),
+                        source("test.LateObject", "package test; public class LateObject {}"),
+                        source("test.EarlyComponent", "package test;\n"
+                                + "public class EarlyComponent {\n"
+                                + "  @com.blueapron.marinator.Injector\n"
+                                + "  public void inject(EarlyObject obj) {}\n"
+                                + "}")),
+                new InjectorProcessor(), new LateComponentGenerator()));
+
+        // The helper was already written, so the generated injector can't be silently dropped.
+        assertThat(errors).hasSize(1);
+        assertThat(errors.get(0)).contains("cannot be added");
+    }
+
+    @Test
+    public void testInvalidInjectorIsReported() {
+        List<String> errors = errors(compile(
+                Collections.singletonList(source("test.BadComponent", "package test;\n"
+                        + "public class BadComponent {\n"
+                        + "  @com.blueapron.marinator.Injector\n"
+                        + "  public void inject(String a, String b) {}\n"
+                        + "}")),
+                new InjectorProcessor()));
+        assertThat(errors).containsExactly("Injectors can only take in one object!");
+        assertThat(generated("MarinadeHelper").exists()).isFalse();
+    }
+
+    @Test
+    public void testFactoriesAreOptIn() throws IOException {
+        List<String> errors = errors(compile(
+                Arrays.asList(
+                        source("test.PlainObject", "package test; public class PlainObject {}"),
+                        source("test.SelfInjectingObject", "package test;\n"
+                                + "public class SelfInjectingObject {\n"
+                                + "  public SelfInjectingObject() {\n"
+                                + "    com.blueapron.marinator.generated.Marinade.inject(this);\n"
+                                + "  }\n"
+                                + "}"),
+                        source("test.FactoryComponent", "package test;\n"
+                                + "public class FactoryComponent {\n"
+                                + "  @com.blueapron.marinator.Injector(factory = true)\n"
+                                + "  public void inject(PlainObject obj) {}\n"
+                                + "  @com.blueapron.marinator.Injector\n"
+                                + "  public void inject(SelfInjectingObject obj) {}\n"
+                                + "}")),
+                new InjectorProcessor()));
+        assertThat(errors).isEmpty();
+
+        // The self-injecting type would be injected twice by a factory, so it doesn't get one.
+        String helper = new String(Files.readAllBytes(generated("MarinadeHelper").toPath()),
+                StandardCharsets.UTF_8);
+        assertThat(helper).contains("new PlainObject()");
+        assertThat(helper).doesNotContain("new SelfInjectingObject(");
+    }
+
+    @Test
+    public void testFactoriesOnlyConstructAccessibleTypes() {
+        List<String> errors = errors(compile(
+                Arrays.asList(
+                        source("test.HiddenObject", "package test;\n"
+                                + "public class HiddenObject { private HiddenObject() {} }"),
+                        source("test.ArgsObject", "package test;\n"
+                                + "public class ArgsObject { public ArgsObject(int a) {} }"),
+                        source("test.AbstractObject",
+                                "package test; public abstract class AbstractObject {}"),
+                        source("test.FactoryComponent", "package test;\n"
+                                + "public class FactoryComponent {\n"
+                                + "  @com.blueapron.marinator.Injector(factory = true)\n"
+                                + "  public void inject(HiddenObject obj) {}\n"
+                                + "  @com.blueapron.marinator.Injector(factory = true)\n"
+                                + "  public void inject(ArgsObject obj) {}\n"
+                                + "  @com.blueapron.marinator.Injector(factory = true)\n"
+                                + "  public void inject(AbstractObject obj) {}\n"
+                                + "}")),
+                new InjectorProcessor()));
+        assertThat(errors).hasSize(3);
+        for (String error : errors) {
+            assertThat(error).startsWith("Factories need a concrete class");
+        }
+        assertThat(generated("MarinadeHelper").exists()).isFalse();
+    }
+
+    @Test
+    public void testFacadeOverLimitStillCompiles() throws IOException {
+        DiagnosticCollector<JavaFileObject> diagnostics = compile(
+                Arrays.asList(
+                        source("test.FirstObject", "package test;\n"
+                                + "public class FirstObject {\n"
+                                + "  public FirstObject() {\n"
+                                + "    com.blueapron.marinator.generated.Marinade.inject(this);\n"
+                                + "  }\n"
+                                + "}"),
+                        source("test.SecondObject", "package test; public class SecondObject {}"),
+                        source("test.LimitComponent", "package test;\n"
+                                + "public class LimitComponent {\n"
+                                + "  @com.blueapron.marinator.Injector\n"
+                                + "  public void inject(FirstObject obj) {}\n"
+                                + "  @com.blueapron.marinator.Injector\n"
+                                + "  public void inject(SecondObject obj) {}\n"
+                                + "}")),
+                Collections.singletonList("-Amarinator.facadeLimit=1"),
+                new InjectorProcessor());
+        assertThat(errors(diagnostics)).isEmpty();
+
+        boolean warned = false;
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            warned |= diagnostic.getKind() == Diagnostic.Kind.WARNING
+                    && diagnostic.getMessage(null /* locale */).contains("marinator.facadeLimit");
+        }
+        assertThat(warned).isTrue();
+
+        String facade = new String(Files.readAllBytes(generated("Marinade").toPath()),
+                StandardCharsets.UTF_8);
+        assertThat(facade).contains("public static void inject(Object obj)");
+        assertThat(facade).doesNotContain("FirstObject obj");
+    }
+
+    @Test
+    public void testFragment() {
+        File network = new File(mFolder.getRoot(), "network");
+        assertThat(errors(compileNetwork(network))).isEmpty();
+
+        // A module only generates its own fragment, which the app's helper aggregates later on.
+        assertThat(generated(network, "NetworkMarinadeHelper").exists()).isTrue();
+        assertThat(generated(network, "MarinadeHelper").exists()).isFalse();
+    }
+
+    @Test
+    public void testAggregatorWithOwnInjectors() throws Exception {
+        File network = new File(mFolder.getRoot(), "network");
+        File app = new File(mFolder.getRoot(), "app");
+        assertThat(errors(compileNetwork(network))).isEmpty();
+        assertThat(errors(compile(app, Collections.singletonList(network),
+                Arrays.asList(
+                        source("test.AppObject", "package test; public class AppObject {}"),
+                        source("test.AppComponent", "package test;\n"
+                                + "public class AppComponent {\n"
+                                + "  @com.blueapron.marinator.Injector\n"
+                                + "  public void inject(AppObject obj) {}\n"
+                                + "}"),
+                        source("test.App", "package test;\n"
+                                + "public class App {\n"
+                                + "  public static void prepare() {\n"
+                                + "    com.blueapron.marinator.generated.MarinadeHelper.prepare(\n"
+                                + "        new AppComponent(), new test.net.NetComponent());\n"
+                                + "  }\n"
+                                + "}")),
+                Collections.singletonList("-Amarinator.aggregate=true"),
+                new InjectorProcessor()))).isEmpty();
+
+        try (URLClassLoader loader = new ModuleClassLoader(network, app);
+                Marinator.ThreadOverride override = Marinator.override()) {
+            Class appObject = loader.loadClass("test.AppObject");
+            Class netObject = loader.loadClass("test.net.NetObject");
+            Method prepare = loader.loadClass("test.App").getMethod("prepare");
+            MarinatorRegistry registry = override.getRegistry();
+
+            // The app's own table fails to register, which has to close the fragment again.
+            registry.registerInjector(appObject, new Marinator.Injector() {
+                @Override
+                public void inject(Object obj) {}
+            }, true);
+            try {
+                prepare.invoke(null);
+                fail("Expected prepare to fail");
+            } catch (InvocationTargetException e) {
+                assertThat(e.getCause()).isInstanceOf(IllegalArgumentException.class);
+            }
+            assertThat(registry.hasInjector(netObject)).isFalse();
+
+            // With the conflict gone, nothing is left behind to trip up the next prepare.
+            registry.unregisterInjector(appObject);
+            prepare.invoke(null);
+            assertThat(registry.hasInjector(appObject)).isTrue();
+            assertThat(registry.hasInjector(netObject)).isTrue();
+        }
+    }
+
+    @Test
+    public void testAggregatorWithoutOwnInjectors() {
+        File network = new File(mFolder.getRoot(), "network");
+        File app = new File(mFolder.getRoot(), "app");
+        assertThat(errors(compileNetwork(network))).isEmpty();
+        assertThat(errors(compile(app, Collections.singletonList(network),
+                Collections.singletonList(source("test.App", "package test;\n"
+                        + "public class App {\n"
+                        + "  static void prepare() {\n"
+                        + "    com.blueapron.marinator.generated.MarinadeHelper.prepare(\n"
+                        + "        new test.net.NetComponent());\n"
+                        + "    com.blueapron.marinator.generated.Marinade.inject(\n"
+                        + "        new test.net.NetObject());\n"
+                        + "  }\n"
+                        + "}")),
+                Collections.singletonList("-Amarinator.aggregate=true"),
+                new InjectorProcessor()))).isEmpty();
+    }
+
+    @Test
+    public void testPrebuiltAggregator() {
+        File network = new File(mFolder.getRoot(), "network");
+        File app = new File(mFolder.getRoot(), "app");
+        assertThat(errors(compileNetwork(network,
+                Collections.singletonList("-Amarinator.prebuilt=true")))).isEmpty();
+        assertThat(errors(compile(app, Collections.singletonList(network),
+                Arrays.asList(
+                        source("test.AppObject", "package test; public class AppObject {}"),
+                        source("test.AppComponent", "package test;\n"
+                                + "public class AppComponent {\n"
+                                + "  @com.blueapron.marinator.Injector\n"
+                                + "  public void inject(AppObject obj) {}\n"
+                                + "}"),
+                        source("test.App", "package test;\n"
+                                + "public class App {\n"
+                                + "  static void prepare() {\n"
+                                + "    com.blueapron.marinator.generated.MarinadeHelper"
+                                + ".preparePrebuilt(\n"
+                                + "        new AppComponent(), new test.net.NetComponent());\n"
+                                + "  }\n"
+                                + "}")),
+                Arrays.asList("-Amarinator.aggregate=true", "-Amarinator.prebuilt=true"),
+                new InjectorProcessor()))).isEmpty();
+    }
+
+    @Test
+    public void testAggregatorInjectorsFromLaterRoundsAreReported() {
+        File network = new File(mFolder.getRoot(), "network");
+        File app = new File(mFolder.getRoot(), "app");
+        assertThat(errors(compileNetwork(network))).isEmpty();
+        List<String> errors = errors(compile(app, Collections.singletonList(network),
+                Arrays.asList(
+                        source("test.EarlyObject", "package test; public class EarlyObject {}"),
+                        source("test.LateObject", "package test; public class LateObject {}"),
+                        source("test.EarlyComponent", "package test;\n"
+                                + "public class EarlyComponent {\n"
+                                + "  @com.blueapron.marinator.Injector\n"
+                                + "  public void inject(EarlyObject obj) {}\n"
+                                + "}")),
+                Collections.singletonList("-Amarinator.aggregate=true"),
+                new InjectorProcessor(), new LateComponentGenerator()));
+        assertThat(errors).hasSize(1);
+        assertThat(errors.get(0)).contains("cannot be added");
+    }
+
+    private DiagnosticCollector<JavaFileObject> compileNetwork(File network) {
+        return compileNetwork(network, Collections.<String>emptyList());
+    }
+
+    private DiagnosticCollector<JavaFileObject> compileNetwork(File network,
+            List<String> extraOptions) {
+        List<String> options = new ArrayList<>(extraOptions);
+        options.add("-Amarinator.module=network");
+        return compile(network, Collections.<File>emptyList(),
+                Arrays.asList(
+                        source("test.net.NetObject", "package test.net;\n"
+                                + "public class NetObject {}"),
+                        source("test.net.NetComponent", "package test.net;\n"
+                                + "public class NetComponent {\n"
+                                + "  @com.blueapron.marinator.Injector\n"
+                                + "  public void inject(NetObject obj) {}\n"
+                                + "}")),
+                options, new InjectorProcessor());
+    }
+
+    private DiagnosticCollector<JavaFileObject> compile(List<JavaFileObject> sources,
+            Processor... processors) {
+        return compile(sources, Collections.<String>emptyList(), processors);
+    }
+
+    private DiagnosticCollector<JavaFileObject> compile(List<JavaFileObject> sources,
+            List<String> extraOptions, Processor... processors) {
+        return compile(mFolder.getRoot(), Collections.<File>emptyList(), sources, extraOptions,
+                processors);
+    }
+
+    /**
+     * Compiles a module into its own folder, with the classes of the given modules on its
+     * classpath. Generated sources end up in the module folder, and classes in its "classes".
+     */
+    private DiagnosticCollector<JavaFileObject> compile(File module, List<File> dependencies,
+            List<JavaFileObject> sources, List<String> extraOptions, Processor... processors) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        File classes = new File(module, "classes");
+        if (!classes.isDirectory() && !classes.mkdirs()) {
+            throw new IllegalStateException("Unable to create " + classes);
+        }
+        StringBuilder classpath = new StringBuilder();
+        for (File dependency : dependencies) {
+            classpath.append(new File(dependency, "classes")).append(File.pathSeparator);
+        }
+        classpath.append(System.getProperty("java.class.path"));
+        List<String> options = new ArrayList<>(Arrays.asList(
+                "-d", classes.getPath(),
+                "-s", module.getPath(),
+                "-classpath", classpath.toString()));
+        options.addAll(extraOptions);
+        JavaCompiler.CompilationTask task = compiler.getTask(null /* out */,
+                null /* fileManager */, diagnostics, options, null /* classes */, sources);
+        task.setProcessors(Arrays.asList(processors));
+        task.call();
+        return diagnostics;
+    }
+
+    private static List<String> errors(DiagnosticCollector<JavaFileObject> diagnostics) {
+        List<String> errors = new ArrayList<>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                errors.add(diagnostic.getMessage(null /* locale */));
+            }
+        }
+        return errors;
+    }
+
+    private File generated(String className) {
+        return generated(mFolder.getRoot(), className);
+    }
+
+    private static File generated(File module, String className) {
+        return new File(module, "com/blueapron/marinator/generated/" + className + ".java");
+    }
+
+    private static JavaFileObject source(String className, final String contents) {
+        URI uri = URI.create("string:///" + className.replace('.', '/') + ".java");
+        return new SimpleJavaFileObject(uri, JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return contents;
+            }
+        };
+    }
+
+    /**
+     * Loads the compiled modules ahead of the test classpath, which has its own generated helper.
+     */
+    private static final class ModuleClassLoader extends URLClassLoader {
+
+        ModuleClassLoader(File... modules) throws IOException {
+            super(toUrls(modules), ModuleClassLoader.class.getClassLoader());
+        }
+
+        private static URL[] toUrls(File... modules) throws IOException {
+            URL[] urls = new URL[modules.length];
+            for (int i = 0; i < modules.length; i++) {
+                urls[i] = new File(modules[i], "classes").toURI().toURL();
+            }
+            return urls;
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.startsWith("test.") && !name.startsWith("com.blueapron.marinator.generated.")) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> clazz = findLoadedClass(name);
+                if (clazz == null) {
+                    clazz = findClass(name);
+                }
+                if (resolve) {
+                    resolveClass(clazz);
+                }
+                return clazz;
+            }
+        }
+    }
+
+    /**
+     * Generates another component with an @Injector method in the first round, much like Dagger
+     * or other processors running alongside Marinator might.
+     */
+    private static final class LateComponentGenerator extends AbstractProcessor {
+        private boolean mGenerated;
+
+        @Override
+        public Set<String> getSupportedAnnotationTypes() {
+            return Collections.singleton("*");
+        }
+
+        @Override
+        public SourceVersion getSupportedSourceVersion() {
+            return SourceVersion.latestSupported();
+        }
+
+        @Override
+        public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment env) {
+            if (mGenerated) {
+                return false;
+            }
+            mGenerated = true;
+            try (Writer writer = processingEnv.getFiler()
+                    .createSourceFile("test.LateComponent").openWriter()) {
+                writer.write("package test;\n"
+                        + "public class LateComponent {\n"
+                        + "  @com.blueapron.marinator.Injector\n"
+                        + "  public void inject(LateObject obj) {}\n"
+                        + "}");
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.blueapron.marinator.test;
+
+import com.blueapron.marinator.Marinator;
+import com.blueapron.marinator.jfr.MarinatorJfr;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+/**
+ * Tests for the JFR events reported by MarinatorJfr.
+ */
+public class MarinatorJfrTest {
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue("JFR is not available", MarinatorJfr.enable());
+    }
+
+    @After
+    public void tearDown() {
+        MarinatorJfr.disable();
+        Marinator.setInjectionListener(null);
+        Marinator.clear();
+    }
+
+    @Test
+    public void testEventsAreRecorded() throws IOException {
+        List<RecordedEvent> events;
+        try (Recording recording = new Recording()) {
+            recording.enable("com.blueapron.marinator.Inject").with("minElapsed", "0 ns");
+            recording.enable("com.blueapron.marinator.Register");
+            recording.enable("com.blueapron.marinator.Unregister");
+            recording.start();
+
+            Marinator.registerInjector(Fast.class, new SleepingInjector(0), true);
+            Marinator.inject(new Fast());
+            Marinator.unregisterInjector(Fast.class);
+            events = stop(recording);
+        }
+
+        assertThat(names(events)).containsExactly("com.blueapron.marinator.Register",
+                "com.blueapron.marinator.Inject", "com.blueapron.marinator.Unregister");
+        RecordedEvent inject = events.get(1);
+        assertThat(inject.getClass("type").getName()).isEqualTo(Fast.class.getName());
+        assertThat(inject.getString("resolution")).isEqualTo("STRICT");
+        assertThat(events.get(0).getInt("count")).isEqualTo(1);
+    }
+
+    @Test
+    public void testOnlySlowInjectionsAreRecordedByDefault() throws IOException {
+        Marinator.registerInjector(Fast.class, new SleepingInjector(0), true);
+        Marinator.registerInjector(Slow.class, new SleepingInjector(5), true);
+
+        List<RecordedEvent> events;
+        try (Recording recording = new Recording()) {
+            recording.enable("com.blueapron.marinator.Inject");
+            recording.start();
+            Marinator.inject(new Fast());
+            Marinator.inject(new Slow());
+            events = stop(recording);
+        }
+
+        assertThat(events).hasSize(1);
+        assertThat(events.get(0).getClass("type").getName()).isEqualTo(Slow.class.getName());
+        assertThat(events.get(0).getDuration("elapsed").toMillis()).isGreaterThanOrEqualTo(5);
+    }
+
+    @Test
+    public void testOtherListenersAreKept() throws IOException {
+        final int[] injections = new int[1];
+        Marinator.setInjectionListener(new Marinator.InjectionListener() {
+            @Override
+            public void onInject(Class<?> type, Marinator.Resolution resolution,
+                    long durationNanos) {
+                injections[0]++;
+            }
+        });
+        Marinator.registerInjector(Fast.class, new SleepingInjector(0), true);
+
+        List<RecordedEvent> events;
+        try (Recording recording = new Recording()) {
+            recording.enable("com.blueapron.marinator.Inject").with("minElapsed", "0 ns");
+            recording.start();
+            Marinator.inject(new Fast());
+            events = stop(recording);
+        }
+        Marinator.inject(new Fast());
+
+        // Both listeners saw the injection while recording, and ours is still there afterwards.
+        assertThat(events).hasSize(1);
+        assertThat(injections[0]).isEqualTo(2);
+    }
+
+    @Test
+    public void testEventsAreDisabledByDefault() throws IOException {
+        Marinator.registerInjector(Fast.class, new SleepingInjector(0), true);
+
+        List<RecordedEvent> events;
+        try (Recording recording = new Recording()) {
+            recording.start();
+            Marinator.inject(new Fast());
+            events = stop(recording);
+        }
+        assertThat(events).isEmpty();
+    }
+
+    private List<RecordedEvent> stop(Recording recording) throws IOException {
+        recording.stop();
+        File file = mFolder.newFile("marinator.jfr");
+        recording.dump(file.toPath());
+        List<RecordedEvent> events = new ArrayList<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+            if (event.getEventType().getName().startsWith("com.blueapron.marinator.")) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
+    private static List<String> names(List<RecordedEvent> events) {
+        List<String> names = new ArrayList<>();
+        for (RecordedEvent event : events) {
+            names.add(event.getEventType().getName());
+        }
+        return names;
+    }
+
+    private static final class SleepingInjector implements Marinator.Injector {
+        private final long mMillis;
+
+        SleepingInjector(long millis) {
+            mMillis = millis;
+        }
+
+        @Override
+        public void inject(Object obj) {
+            if (mMillis == 0) {
+                return;
+            }
+            try {
+                Thread.sleep(mMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static final class Fast {
+    }
+
+    private static final class Slow {
+    }
+}
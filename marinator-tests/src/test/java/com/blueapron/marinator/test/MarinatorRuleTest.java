@@ -0,0 +1,83 @@
+package com.blueapron.marinator.test;
+
+import com.blueapron.marinator.Marinator;
+import com.blueapron.marinator.generated.MarinadeHelper;
+import com.blueapron.marinator.junit.MarinatorRule;
+import com.blueapron.marinator.test.components.AppComponent;
+import com.blueapron.marinator.test.components.BananaComponent;
+import com.blueapron.marinator.test.components.NetComponent;
+import com.blueapron.marinator.test.components.ZebraComponent;
+import com.blueapron.marinator.test.models.AppObject1;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.assertj.core.api.Java6Assertions.fail;
+
+/**
+ * Tests for thread-local overrides and the MarinatorRule.
+ */
+public class MarinatorRuleTest {
+
+    @Rule
+    public final MarinatorRule mMarinator = new MarinatorRule();
+
+    @Test
+    public void testPrepareIsScopedToTest() {
+        MarinadeHelper.prepare(new AppComponent(), new BananaComponent(), new NetComponent(),
+                new ZebraComponent());
+
+        AppObject1 app1 = new AppObject1();
+        Marinator.inject(app1);
+        assertThat(app1.injected).isTrue();
+
+        // The shared registry never saw the registration.
+        try {
+            Marinator.getRegistry().inject(new AppObject1());
+            fail("Registration inside an override should not leak to the root registry");
+        } catch (IllegalStateException ise) {
+            // Expected - only the override has injectors.
+        }
+    }
+
+    @Test
+    public void testConcurrentOverridesAreIndependent() throws Exception {
+        final CountDownLatch registered = new CountDownLatch(2);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[2];
+        for (int i = 0; i < threads.length; i++) {
+            final boolean markInjected = i == 0;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try (Marinator.ThreadOverride override = Marinator.override()) {
+                        // Both threads register the same type - this would fail without overrides.
+                        override.getRegistry().registerInjector(AppObject1.class, new Marinator.Injector() {
+                            @Override
+                            public void inject(Object obj) {
+                                ((AppObject1) obj).injected = markInjected;
+                            }
+                        }, true);
+                        registered.countDown();
+                        registered.await();
+
+                        AppObject1 app1 = new AppObject1();
+                        Marinator.inject(app1);
+                        assertThat(app1.injected).isEqualTo(markInjected);
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(failure.get()).isNull();
+    }
+}
@@ -1,7 +1,18 @@
 package com.blueapron.marinator.test;
 
+import com.blueapron.marinator.InjectionMetrics;
+import com.blueapron.marinator.InjectionProfile;
 import com.blueapron.marinator.Marinator;
+import com.blueapron.marinator.MarinatorRegistry;
+import com.blueapron.marinator.Registration;
+import com.blueapron.marinator.ResolvedInjector;
+import com.blueapron.marinator.generated.Marinade;
 import com.blueapron.marinator.generated.MarinadeHelper;
+import com.blueapron.marinator.test.TestFixtures.Base;
+import com.blueapron.marinator.test.TestFixtures.Leaf;
+import com.blueapron.marinator.test.TestFixtures.Marker;
+import com.blueapron.marinator.test.TestFixtures.Middle;
+import com.blueapron.marinator.test.TestFixtures.RecordingInjector;
 import com.blueapron.marinator.test.components.AppComponent;
 import com.blueapron.marinator.test.components.BananaComponent;
 import com.blueapron.marinator.test.components.NetComponent;
@@ -17,6 +28,24 @@ import com.blueapron.marinator.test.models.OkapiObject;
 import com.blueapron.marinator.test.models.OnagerObject;
 import com.blueapron.marinator.test.models.ZebraObject;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.After;
 import org.junit.Test;
 
 import static org.assertj.core.api.Java6Assertions.assertThat;
@@ -27,6 +56,12 @@ import static org.assertj.core.api.Java6Assertions.fail;
  */
 public class MarinatorTest {
 
+    @After
+    public void tearDown() {
+        Marinator.setInjectionListener(null);
+        Marinator.clear();
+    }
+
     @Test
     public void testInjectors() {
         // Create the components and prepare the Marinade.
@@ -94,4 +129,641 @@ public class MarinatorTest {
         Marinator.inject(okapi);
         assertThat(okapi.injected).isFalse();
     }
+
+    @Test
+    public void testLooseResolutionTracksRegistry() {
+        Marinator.Injector zebraInjector = new Marinator.Injector() {
+            @Override
+            public void inject(Object obj) {
+                ((ZebraObject) obj).injected = true;
+            }
+        };
+
+        // A miss is remembered, but registering an injector must still be picked up.
+        try {
+            Marinator.inject(new OkapiObject());
+            fail("Injecting with no loose injector registered should fail");
+        } catch (IllegalStateException ise) {
+            // Expected - nothing is registered yet.
+        }
+        Marinator.registerInjector(ZebraObject.class, zebraInjector, false);
+        OkapiObject okapi = new OkapiObject();
+        Marinator.inject(okapi);
+        assertThat(((ZebraObject) okapi).injected).isTrue();
+
+        // Once resolved, unregistering the parent must not leave a stale injector behind.
+        Marinator.unregisterInjector(ZebraObject.class);
+        try {
+            Marinator.inject(new OkapiObject());
+            fail("Injecting after the loose injector was removed should fail");
+        } catch (IllegalStateException ise) {
+            // Expected - the loose injector is gone.
+        }
+    }
+
+    @Test
+    public void testLooseResolutionPicksMostSpecific() {
+        MarinatorRegistry registry = new MarinatorRegistry();
+        RecordingInjector base = new RecordingInjector();
+        RecordingInjector middle = new RecordingInjector();
+        RecordingInjector marker = new RecordingInjector();
+        registry.registerInjector(Marker.class, marker, false);
+        registry.registerInjector(Base.class, base, false);
+        registry.registerInjector(Middle.class, middle, false);
+
+        // The closest superclass wins, and superclasses come before interfaces.
+        registry.inject(new Leaf());
+        assertThat(middle.mCount).isEqualTo(1);
+        registry.unregisterInjector(Middle.class);
+        registry.inject(new Leaf());
+        assertThat(base.mCount).isEqualTo(1);
+        registry.unregisterInjector(Base.class);
+        registry.inject(new Leaf());
+        assertThat(marker.mCount).isEqualTo(1);
+
+        // A strict injector in the middle of the hierarchy only applies to that exact class.
+        registry.registerInjector(Base.class, base, false);
+        registry.registerInjector(Middle.class, middle, true);
+        registry.inject(new Leaf());
+        assertThat(base.mCount).isEqualTo(2);
+        assertThat(middle.mCount).isEqualTo(1);
+    }
+
+    @Test
+    public void testInjectorFor() {
+        // Handles can be created before anything is registered, ie in a static initializer.
+        ResolvedInjector<Middle> handle = Marinator.injectorFor(Middle.class);
+        try {
+            handle.inject(new Middle());
+            fail("Expected injection to fail");
+        } catch (IllegalStateException expected) {
+            // Expected.
+        }
+
+        RecordingInjector first = new RecordingInjector();
+        RecordingInjector second = new RecordingInjector();
+        RecordingInjector base = new RecordingInjector();
+        Marinator.registerInjector(Middle.class, first, true);
+        handle.inject(new Middle());
+        assertThat(first.mCount).isEqualTo(1);
+
+        // The handle picks up replacements, and defers to the registry for subclasses.
+        Marinator.replaceInjectors(new Class[] { Middle.class }, new Marinator.Injector[] {
+                second }, new boolean[] { false });
+        Marinator.registerInjector(Base.class, base, false);
+        handle.inject(new Middle());
+        handle.inject(new Leaf());
+        assertThat(first.mCount).isEqualTo(1);
+        assertThat(second.mCount).isEqualTo(2);
+
+        // Thread overrides take precedence, just as they do for Marinator.inject.
+        RecordingInjector overridden = new RecordingInjector();
+        try (Marinator.ThreadOverride override = Marinator.override()) {
+            override.getRegistry().registerInjector(Middle.class, overridden, true);
+            handle.inject(new Middle());
+        }
+        assertThat(overridden.mCount).isEqualTo(1);
+
+        Marinator.unregisterInjector(Middle.class);
+        handle.inject(new Middle());
+        assertThat(base.mCount).isEqualTo(1);
+        assertThat(second.mCount).isEqualTo(2);
+    }
+
+    @Test
+    public void testInjectAll() {
+        MarinadeHelper.prepare(new AppComponent(), new BananaComponent(), new NetComponent(),
+                new ZebraComponent());
+
+        // Mix runs of the same type with loose and strict types.
+        AppObject1 app1a = new AppObject1();
+        AppObject1 app1b = new AppObject1();
+        NetObject1 net1 = new NetObject1();
+        OkapiObject okapi = new OkapiObject();
+        Marinator.injectAll(Arrays.asList(app1a, app1b, net1, okapi));
+        assertThat(app1a.injected).isTrue();
+        assertThat(app1b.injected).isTrue();
+        assertThat(net1.injected).isTrue();
+        assertThat(((ZebraObject) okapi).injected).isTrue();
+
+        AppObject2 app2 = new AppObject2();
+        Marinator.injectAll(new Object[] { app2 });
+        assertThat(app2.injected).isTrue();
+
+        // A failure should point at the offending element.
+        try {
+            Marinator.injectAll(new Object[] { new AppObject1(), new NonInjectedObject() });
+            fail("Injecting a non registered type should fail");
+        } catch (IllegalStateException ise) {
+            assertThat(ise.getMessage()).contains("NonInjectedObject").contains("index 1");
+        }
+    }
+
+    @Test
+    public void testInjectAsync() {
+        MarinadeHelper.prepare(new AppComponent(), new BananaComponent(), new NetComponent(),
+                new ZebraComponent());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            AppObject1 app1 = new AppObject1();
+            Marinator.injectAsync(app1, executor).join();
+            assertThat(app1.injected).isTrue();
+
+            // One bad element fails the batch, but everything else is still injected.
+            List<Object> objs = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                objs.add(i == 50 ? new NonInjectedObject() : new AppObject2());
+            }
+            try {
+                Marinator.injectAllAsync(objs, executor).join();
+                fail("Injecting a non registered type should fail");
+            } catch (CompletionException e) {
+                Throwable[] failures = e.getCause().getSuppressed();
+                assertThat(failures).hasSize(1);
+                assertThat(failures[0].getMessage()).contains("index 50");
+            }
+            for (int i = 0; i < objs.size(); i++) {
+                if (i != 50) {
+                    assertThat(((AppObject2) objs.get(i)).injected).isTrue();
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testPrepareLazy() {
+        final AtomicInteger appBuilds = new AtomicInteger();
+        final AtomicInteger netBuilds = new AtomicInteger();
+        MarinadeHelper.prepareLazy(new Supplier<AppComponent>() {
+            @Override
+            public AppComponent get() {
+                appBuilds.incrementAndGet();
+                return new AppComponent();
+            }
+        }, new Supplier<BananaComponent>() {
+            @Override
+            public BananaComponent get() {
+                return new BananaComponent();
+            }
+        }, new Supplier<NetComponent>() {
+            @Override
+            public NetComponent get() {
+                netBuilds.incrementAndGet();
+                return new NetComponent();
+            }
+        }, new Supplier<ZebraComponent>() {
+            @Override
+            public ZebraComponent get() {
+                return new ZebraComponent();
+            }
+        });
+
+        // Nothing is built until one of its types is injected.
+        assertThat(appBuilds.get()).isEqualTo(0);
+        assertThat(netBuilds.get()).isEqualTo(0);
+
+        AppObject1 app1 = new AppObject1();
+        Marinator.inject(app1);
+        assertThat(app1.injected).isTrue();
+        AppObject2 app2 = new AppObject2();
+        Marinator.inject(app2);
+        assertThat(app2.injected).isTrue();
+
+        // The component is shared by all of its types, and only built once.
+        assertThat(appBuilds.get()).isEqualTo(1);
+        assertThat(netBuilds.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void testPrepareAsync() throws Exception {
+        final CountDownLatch appRelease = new CountDownLatch(1);
+        final AtomicInteger appBuilds = new AtomicInteger();
+        ExecutorService executor = Executors.newCachedThreadPool();
+        ExecutorService injector = Executors.newSingleThreadExecutor();
+        try {
+            MarinadeHelper.prepareAsync(executor, new Supplier<AppComponent>() {
+                @Override
+                public AppComponent get() {
+                    appBuilds.incrementAndGet();
+                    try {
+                        appRelease.await();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return new AppComponent();
+                }
+            }, new Supplier<BananaComponent>() {
+                @Override
+                public BananaComponent get() {
+                    return new BananaComponent();
+                }
+            }, new Supplier<NetComponent>() {
+                @Override
+                public NetComponent get() {
+                    return new NetComponent();
+                }
+            }, new Supplier<ZebraComponent>() {
+                @Override
+                public ZebraComponent get() {
+                    return new ZebraComponent();
+                }
+            });
+
+            // Types whose component is built don't wait for the rest.
+            NetObject2 net = new NetObject2();
+            Marinator.inject(net);
+            assertThat(net.injected).isTrue();
+
+            // Types whose component is still being built wait for just that component.
+            final AppObject1 app = new AppObject1();
+            Future<?> pending = injector.submit(new Runnable() {
+                @Override
+                public void run() {
+                    Marinator.inject(app);
+                }
+            });
+            try {
+                pending.get(50, TimeUnit.MILLISECONDS);
+                fail("Injection should wait for its component");
+            } catch (TimeoutException expected) {
+                // Expected.
+            }
+            assertThat(app.injected).isFalse();
+
+            appRelease.countDown();
+            pending.get(5, TimeUnit.SECONDS);
+            assertThat(app.injected).isTrue();
+            assertThat(appBuilds.get()).isEqualTo(1);
+        } finally {
+            appRelease.countDown();
+            executor.shutdown();
+            injector.shutdown();
+        }
+    }
+
+    @Test
+    public void testTryInject() {
+        MarinadeHelper.prepare(new AppComponent(), new BananaComponent(), new NetComponent(),
+                new ZebraComponent());
+
+        AppObject1 app = new AppObject1();
+        assertThat(Marinator.tryInject(app)).isTrue();
+        assertThat(app.injected).isTrue();
+        OkapiObject okapi = new OkapiObject();
+        assertThat(Marinator.tryInject(okapi)).isTrue();
+        assertThat(((ZebraObject) okapi).injected).isTrue();
+
+        // Misses - including subclasses of strict types - just return false, every time.
+        for (int i = 0; i < 2; i++) {
+            NonInjectedObject nonInjected = new NonInjectedObject();
+            assertThat(Marinator.tryInject(nonInjected)).isFalse();
+            assertThat(nonInjected.injected).isFalse();
+            assertThat(Marinator.tryInject(new CavendishObject())).isFalse();
+        }
+
+        assertThat(Marinator.hasInjector(AppObject1.class)).isTrue();
+        assertThat(Marinator.hasInjector(OkapiObject.class)).isTrue();
+        assertThat(Marinator.hasInjector(CavendishObject.class)).isFalse();
+        assertThat(Marinator.hasInjector(NonInjectedObject.class)).isFalse();
+
+        // Listeners still see the misses.
+        final List<Marinator.Resolution> resolutions = new ArrayList<>();
+        Marinator.setInjectionListener(new Marinator.InjectionListener() {
+            @Override
+            public void onInject(Class<?> type, Marinator.Resolution resolution,
+                    long durationNanos) {
+                resolutions.add(resolution);
+            }
+        });
+        assertThat(Marinator.tryInject(new NonInjectedObject())).isFalse();
+        assertThat(Marinator.tryInject(new AppObject1())).isTrue();
+        assertThat(resolutions).containsExactly(Marinator.Resolution.MISS,
+                Marinator.Resolution.STRICT);
+    }
+
+    @Test
+    public void testNewInstance() {
+        MarinadeHelper.prepare(new AppComponent(), new BananaComponent(), new NetComponent(),
+                new ZebraComponent());
+
+        AppObject1 app = Marinator.newInstance(AppObject1.class);
+        assertThat(app.injected).isTrue();
+        NetObject2 net = Marinator.getRegistry().injectorFor(NetObject2.class).newInstance();
+        assertThat(net.injected).isTrue();
+
+        // Types that are only injected loosely, or not at all, have no factory.
+        try {
+            Marinator.newInstance(OkapiObject.class);
+            fail("Loosely injected types can't be constructed");
+        } catch (IllegalStateException expected) {
+            assertThat(expected).hasMessage("No factory for type OkapiObject");
+        }
+        try {
+            Marinator.newInstance(NonInjectedObject.class);
+            fail("Non registered types can't be constructed");
+        } catch (IllegalStateException expected) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testAddInjectionListener() {
+        MarinadeHelper.prepare(new AppComponent(), new BananaComponent(), new NetComponent(),
+                new ZebraComponent());
+        final int[] counts = new int[2];
+        Marinator.InjectionListener first = new Marinator.InjectionListener() {
+            @Override
+            public void onInject(Class<?> type, Marinator.Resolution resolution,
+                    long durationNanos) {
+                counts[0]++;
+            }
+        };
+        Marinator.InjectionListener second = new Marinator.InjectionListener() {
+            @Override
+            public void onInject(Class<?> type, Marinator.Resolution resolution,
+                    long durationNanos) {
+                counts[1]++;
+            }
+        };
+
+        Marinator.setInjectionListener(first);
+        Marinator.addInjectionListener(second);
+        Marinator.inject(new AppObject1());
+        Marinator.removeInjectionListener(second);
+        Marinator.inject(new AppObject1());
+        // Removing a listener that isn't installed leaves the rest alone.
+        Marinator.removeInjectionListener(second);
+        Marinator.inject(new AppObject1());
+
+        assertThat(counts[0]).isEqualTo(3);
+        assertThat(counts[1]).isEqualTo(1);
+    }
+
+    @Test
+    public void testRegisterInjectorsIsAllOrNothing() {
+        Marinator.Injector injector = new Marinator.Injector() {
+            @Override
+            public void inject(Object obj) {
+                ((NetObject1) obj).injected = true;
+            }
+        };
+        Marinator.registerInjector(AppObject1.class, injector, true);
+
+        // AppObject1 is already registered, so NetObject1 must not be registered either.
+        try {
+            Marinator.registerInjectors(new Class[] { NetObject1.class, AppObject1.class },
+                    new Marinator.Injector[] { injector, injector }, new boolean[] { true, true });
+            fail("Registering a duplicate injector should fail");
+        } catch (IllegalArgumentException iae) {
+            // Expected - AppObject1 already has an injector.
+        }
+        try {
+            Marinator.inject(new NetObject1());
+            fail("A failed table registration should not register anything");
+        } catch (IllegalStateException ise) {
+            // Expected - nothing from the table was registered.
+        }
+    }
+
+    @Test
+    public void testReadersNeverSeePartialTable() throws Exception {
+        final MarinatorRegistry registry = new MarinatorRegistry();
+        final Class[] types = { AppObject1.class, AppObject2.class, NetObject1.class,
+                NetObject2.class };
+        final Marinator.Injector[] injectors = new Marinator.Injector[types.length];
+        Arrays.fill(injectors, new Marinator.Injector() {
+            @Override
+            public void inject(Object obj) {
+            }
+        });
+        final boolean[] strict = { true, true, true, true };
+
+        // injectAll resolves the whole batch against a single snapshot, so the table is either
+        // missing from the start of the batch or registered for all of it.
+        final AtomicInteger done = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            List<Future<?>> readers = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                readers.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        while (done.get() == 0) {
+                            try {
+                                registry.injectAll(new Object[] { new AppObject1(),
+                                        new AppObject2(), new NetObject1(), new NetObject2() });
+                            } catch (IllegalStateException ise) {
+                                assertThat(ise.getMessage()).endsWith("at index 0");
+                            }
+                        }
+                    }
+                }));
+            }
+            for (int i = 0; i < 5000; i++) {
+                registry.registerInjectors(types, injectors, strict).close();
+            }
+            done.set(1);
+            for (Future<?> reader : readers) {
+                reader.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testReplaceAndClose() {
+        Registration original = MarinadeHelper.prepare(new AppComponent(),
+                new BananaComponent(), new NetComponent(), new ZebraComponent());
+
+        // Swap out the app component - its types move over to the replacement in one step.
+        final AppObject1[] replaced = new AppObject1[1];
+        Registration replacement = MarinadeHelper.replace(new AppComponent() {
+            @Override
+            public void inject(AppObject1 obj) {
+                replaced[0] = obj;
+            }
+        }, new BananaComponent(), new NetComponent(), new ZebraComponent());
+        AppObject1 app1 = new AppObject1();
+        Marinator.inject(app1);
+        assertThat(replaced[0]).isSameAs(app1);
+        assertThat(app1.injected).isFalse();
+
+        // Closing the stale handle must not remove the replacement.
+        original.close();
+        AppObject2 app2 = new AppObject2();
+        Marinator.inject(app2);
+        assertThat(app2.injected).isTrue();
+
+        // Closing the replacement removes everything, including the loose injector.
+        replacement.close();
+        try {
+            Marinator.inject(new OkapiObject());
+            fail("Injecting after the registration was closed should fail");
+        } catch (IllegalStateException ise) {
+            // Expected - the loose injector is gone.
+        }
+        MarinadeHelper.prepare(new AppComponent(), new BananaComponent(), new NetComponent(),
+                new ZebraComponent());
+    }
+
+    @Test
+    public void testMarinadeFacade() {
+        MarinadeHelper.prepare(new AppComponent(), new BananaComponent(), new NetComponent(),
+                new ZebraComponent());
+
+        AppObject1 app1 = new AppObject1();
+        Marinade.inject(app1);
+        assertThat(app1.injected).isTrue();
+
+        // A subclass goes through the registry, which resolves it loosely.
+        OkapiObject okapi = new OkapiObject();
+        Marinade.inject(okapi);
+        assertThat(((ZebraObject) okapi).injected).isTrue();
+
+        // Overrides are honored, even though the helper was prepared on the shared registry.
+        final AppObject1[] overridden = new AppObject1[1];
+        try (Marinator.ThreadOverride override = Marinator.override()) {
+            override.getRegistry().registerInjector(AppObject1.class, new Marinator.Injector() {
+                @Override
+                public void inject(Object obj) {
+                    overridden[0] = (AppObject1) obj;
+                }
+            }, true);
+            AppObject1 overriddenApp1 = new AppObject1();
+            Marinade.inject(overriddenApp1);
+            assertThat(overridden[0]).isSameAs(overriddenApp1);
+            assertThat(overriddenApp1.injected).isFalse();
+        }
+
+        // Once an injector is removed, the facade stops calling the component directly.
+        Marinator.unregisterInjector(AppObject1.class);
+        try {
+            Marinade.inject(new AppObject1());
+            fail("Injecting an unregistered type should fail");
+        } catch (IllegalStateException ise) {
+            // Expected - the facade fell back to the registry.
+        }
+    }
+
+    @Test
+    public void testInjectionMetrics() {
+        MarinadeHelper.prepare(new AppComponent(), new BananaComponent(), new NetComponent(),
+                new ZebraComponent());
+        InjectionMetrics metrics = new InjectionMetrics();
+        Marinator.setInjectionListener(metrics);
+
+        Marinator.inject(new AppObject1());
+        Marinator.injectAll(Arrays.asList(new AppObject1(), new OkapiObject()));
+        try {
+            Marinator.inject(new NonInjectedObject());
+            fail("Non registered injector should fail");
+        } catch (IllegalStateException ise) {
+            // Expected - this is counted as a miss.
+        }
+
+        InjectionMetrics.Snapshot snapshot = metrics.snapshot();
+        assertThat(snapshot.getStrictCount()).isEqualTo(2);
+        assertThat(snapshot.getLooseCount()).isEqualTo(1);
+        assertThat(snapshot.getMissCount()).isEqualTo(1);
+        assertThat(snapshot.getTypes().get(AppObject1.class).getCount()).isEqualTo(2);
+        assertThat(snapshot.getTypes().get(OkapiObject.class).getCount()).isEqualTo(1);
+        assertThat(snapshot.getTypes().get(NonInjectedObject.class).getMissCount()).isEqualTo(1);
+
+        // Once the listener is removed, nothing more is recorded.
+        Marinator.setInjectionListener(null);
+        Marinator.inject(new AppObject1());
+        assertThat(metrics.snapshot().getStrictCount()).isEqualTo(2);
+
+        // The slowest possible injection lands in the last bucket, which ends at Long.MAX_VALUE.
+        metrics.onInject(AppObject2.class, Marinator.Resolution.STRICT, Long.MAX_VALUE);
+        assertThat(metrics.snapshot().getTypes().get(AppObject2.class).getPercentileNanos(100))
+                .isEqualTo(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testInjectionProfile() throws IOException {
+        MarinadeHelper.prepare(new AppComponent(), new BananaComponent(), new NetComponent(),
+                new ZebraComponent());
+        InjectionProfile.Recorder recorder = new InjectionProfile.Recorder();
+        Marinator.setInjectionListener(recorder);
+        Marinator.inject(new OkapiObject());
+        Marinator.inject(new AppObject1());
+        Marinator.inject(new OkapiObject());
+        try {
+            Marinator.inject(new NonInjectedObject());
+            fail("Non registered injector should fail");
+        } catch (IllegalStateException ise) {
+            // Expected - misses aren't recorded.
+        }
+        Marinator.setInjectionListener(null);
+
+        // Round trip the profile, and check that types are kept in first injection order.
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        recorder.toProfile().writeTo(out);
+        byte[] stale = "com.example.RemovedObject\n".getBytes("UTF-8");
+        byte[] bytes = Arrays.copyOf(out.toByteArray(), out.size() + stale.length);
+        System.arraycopy(stale, 0, bytes, out.size(), stale.length);
+        InjectionProfile profile = InjectionProfile.readFrom(new ByteArrayInputStream(bytes));
+        assertThat(profile.getClassNames()).containsExactly(OkapiObject.class.getName(),
+                AppObject1.class.getName(), "com.example.RemovedObject");
+
+        // Types that no longer exist are skipped.
+        Marinator.prewarm(profile).join();
+        OkapiObject okapi = new OkapiObject();
+        Marinator.inject(okapi);
+        assertThat(((ZebraObject) okapi).injected).isTrue();
+
+        // Classes are loaded with the given loader, and those it can't load are counted.
+        Executor direct = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        assertThat(Marinator.prewarm(profile, getClass().getClassLoader(), direct).join())
+                .isEqualTo(1);
+        ClassLoader empty = new ClassLoader(null /* parent */) {
+        };
+        assertThat(Marinator.prewarm(profile, empty, direct).join()).isEqualTo(3);
+    }
+
+    @Test
+    public void testScopes() {
+        MarinadeHelper.prepare(new AppComponent(), new BananaComponent(), new NetComponent(),
+                new ZebraComponent());
+
+        // Override a single type in a scope - everything else falls back to the root.
+        MarinatorRegistry scope = Marinator.newScope();
+        final AppObject1[] scoped = new AppObject1[1];
+        scope.registerInjector(AppObject1.class, new Marinator.Injector() {
+            @Override
+            public void inject(Object obj) {
+                scoped[0] = (AppObject1) obj;
+            }
+        }, true);
+
+        AppObject1 app1 = new AppObject1();
+        scope.inject(app1);
+        assertThat(scoped[0]).isSameAs(app1);
+        assertThat(app1.injected).isFalse();
+
+        AppObject2 app2 = new AppObject2();
+        scope.inject(app2);
+        assertThat(app2.injected).isTrue();
+
+        // The root registry never sees the scope's injectors.
+        AppObject1 rootApp1 = new AppObject1();
+        Marinator.inject(rootApp1);
+        assertThat(rootApp1.injected).isTrue();
+        assertThat(scoped[0]).isSameAs(app1);
+
+        // Clearing the scope doesn't touch the parent.
+        scope.clear();
+        AppObject1 clearedApp1 = new AppObject1();
+        scope.inject(clearedApp1);
+        assertThat(clearedApp1.injected).isTrue();
+    }
 }
@@ -0,0 +1,151 @@
+package com.blueapron.marinator.test;
+
+import com.blueapron.marinator.Marinator;
+import com.blueapron.marinator.MarinatorRegistry;
+import com.blueapron.marinator.Registration;
+import com.blueapron.marinator.generated.MarinadeHelper;
+import com.blueapron.marinator.test.components.AppComponent;
+import com.blueapron.marinator.test.components.BananaComponent;
+import com.blueapron.marinator.test.components.NetComponent;
+import com.blueapron.marinator.test.components.ZebraComponent;
+import com.blueapron.marinator.test.models.AppObject1;
+import com.blueapron.marinator.test.models.NetObject2;
+
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.assertj.core.api.Java6Assertions.fail;
+
+/**
+ * Tests for the prebuilt registration table, generated with marinator.prebuilt. The table can
+ * only be claimed once per JVM, so everything that prepares it is covered by a single test.
+ */
+public class PrebuiltRegistrationTest {
+
+    @After
+    public void tearDown() {
+        Marinator.setRegistrationListener(null);
+        Marinator.clear();
+    }
+
+    @Test
+    public void testPrepare() throws Exception {
+        final int[] registrations = new int[1];
+        Marinator.setRegistrationListener(new Marinator.RegistrationListener() {
+            @Override
+            public void onRegister(int count, boolean replace, long durationNanos) {
+                assertThat(replace).isFalse();
+                registrations[0]++;
+            }
+
+            @Override
+            public void onUnregister(int count, long durationNanos) {
+            }
+
+            @Override
+            public void onClear(long durationNanos) {
+            }
+        });
+
+        // A regular prepare first leaves the prebuilt table unclaimed and usable, even though
+        // preparing again fails just like a second prepare does.
+        MarinadeHelper.prepare(new AppComponent(), new BananaComponent(), new NetComponent(),
+                new ZebraComponent());
+        try {
+            prepare();
+            fail("Preparing twice should fail");
+        } catch (IllegalArgumentException expected) {
+            // Expected - the types are already registered.
+        }
+        Marinator.clear();
+
+        // The first prepare after that registers the prebuilt table in one go.
+        registrations[0] = 0;
+        Registration registration = prepare();
+        assertThat(registrations[0]).isEqualTo(1);
+        assertThat(registration).isSameAs(prebuiltRegistration());
+        assertThat(registration.getRegistry()).isSameAs(Marinator.getRegistry());
+        assertThat(registration.isActive()).isTrue();
+        assertInjected();
+
+        // Preparing again fails without touching the table in effect.
+        try {
+            prepare();
+            fail("Preparing twice should fail");
+        } catch (IllegalArgumentException expected) {
+            // Expected - the types are already registered.
+        }
+        assertThat(registration.isActive()).isTrue();
+        assertInjected();
+
+        // Once the table has been claimed, later prepares register a new one.
+        Marinator.clear();
+        Registration second = prepare();
+        assertThat(second).isNotSameAs(registration);
+        assertThat(second.isActive()).isTrue();
+        assertInjected();
+
+        // Preparing inside an override stays inside the override.
+        Marinator.clear();
+        try (Marinator.ThreadOverride override = Marinator.override()) {
+            Registration scoped = prepare();
+            assertThat(scoped.getRegistry()).isSameAs(override.getRegistry());
+            assertInjected();
+        }
+        assertThat(Marinator.hasInjector(AppObject1.class)).isFalse();
+    }
+
+    private static Registration prebuiltRegistration() throws Exception {
+        Class<?> prebuilt = Class.forName(MarinadeHelper.class.getName() + "$Prebuilt");
+        Field helper = prebuilt.getDeclaredField("HELPER");
+        helper.setAccessible(true);
+        Field registration = MarinadeHelper.class.getDeclaredField("mRegistration");
+        registration.setAccessible(true);
+        return (Registration) registration.get(helper.get(null));
+    }
+
+    private static Registration prepare() {
+        return MarinadeHelper.preparePrebuilt(new AppComponent(), new BananaComponent(),
+                new NetComponent(), new ZebraComponent());
+    }
+
+    private static void assertInjected() {
+        AppObject1 app = new AppObject1();
+        Marinator.inject(app);
+        assertThat(app.injected).isTrue();
+        NetObject2 net = new NetObject2();
+        Marinator.inject(net);
+        assertThat(net.injected).isTrue();
+    }
+
+    @Test
+    public void testNativeImageConfiguration() throws Exception {
+        Properties properties = new Properties();
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream(
+                "META-INF/native-image/com.blueapron.marinator/MarinadeHelper/"
+                        + "native-image.properties")) {
+            assertThat(in).isNotNull();
+            properties.load(in);
+        }
+        // Only the classes the prebuilt registry holds are listed, rather than whole packages.
+        List<String> classes = Arrays.asList(properties.getProperty("Args")
+                .substring("--initialize-at-build-time=".length()).split(","));
+        assertThat(classes).contains(MarinadeHelper.class.getName(),
+                MarinadeHelper.class.getName() + "$Prebuilt",
+                MarinadeHelper.class.getName() + "$Table0");
+        // The registry is created at runtime, so it reads its system properties there.
+        assertThat(classes).doesNotContain(Marinator.class.getName(),
+                MarinatorRegistry.class.getName(), "com.blueapron.marinator",
+                "com.blueapron.marinator.generated");
+        for (String name : classes) {
+            Class.forName(name, false /* initialize */, getClass().getClassLoader());
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.blueapron.marinator.test;
+
+import com.blueapron.marinator.Marinator;
+
+/**
+ * Class hierarchy and injector shared by the registry tests.
+ */
+final class TestFixtures {
+
+    private TestFixtures() {
+    }
+
+    interface Marker {
+    }
+
+    static class Base {
+    }
+
+    static class Middle extends Base {
+    }
+
+    static class Leaf extends Middle implements Marker {
+    }
+
+    /**
+     * Counts every object it's handed.
+     */
+    static final class RecordingInjector implements Marinator.Injector {
+        int mCount;
+
+        @Override
+        public void inject(Object obj) {
+            mCount++;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.blueapron.marinator.test;
+
+import com.blueapron.marinator.Marinator;
+import com.blueapron.marinator.MarinatorRegistry;
+import com.blueapron.marinator.Registration;
+import com.blueapron.marinator.test.TestFixtures.Base;
+import com.blueapron.marinator.test.TestFixtures.Leaf;
+import com.blueapron.marinator.test.TestFixtures.Middle;
+import com.blueapron.marinator.test.TestFixtures.RecordingInjector;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.assertj.core.api.Java6Assertions.fail;
+
+/**
+ * Tests for registries created with {@link MarinatorRegistry#newWeakRegistry()}.
+ */
+public class WeakRegistryTest {
+
+    private static final int MAX_GC_ATTEMPTS = 50;
+
+    @Test
+    public void testWeakRegistryResolvesLikeRegularRegistry() {
+        MarinatorRegistry registry = MarinatorRegistry.newWeakRegistry();
+        RecordingInjector base = new RecordingInjector();
+        RecordingInjector leaf = new RecordingInjector();
+        registry.registerInjector(Base.class, base, false /* strict */);
+        Registration registration = registry.registerInjectors(new Class[] { Leaf.class },
+                new Marinator.Injector[] { leaf }, new boolean[] { true });
+
+        registry.inject(new Leaf());
+        registry.inject(new Middle());
+        assertThat(leaf.mCount).isEqualTo(1);
+        assertThat(base.mCount).isEqualTo(1);
+
+        // Duplicates are rejected without registering anything from the table.
+        try {
+            registry.registerInjectors(new Class[] { Middle.class, Base.class },
+                    new Marinator.Injector[] { leaf, leaf }, new boolean[] { true, true });
+            fail("Expected registration to fail");
+        } catch (IllegalArgumentException expected) {
+            // Expected.
+        }
+        registry.inject(new Middle());
+        assertThat(base.mCount).isEqualTo(2);
+
+        // Removing the strict injector falls back to the loose one.
+        registration.close();
+        registry.inject(new Leaf());
+        assertThat(base.mCount).isEqualTo(3);
+
+        registry.clear();
+        try {
+            registry.inject(new Leaf());
+            fail("Expected injection to fail");
+        } catch (IllegalStateException expected) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testUnloadedClassLoaderIsCollected() throws Exception {
+        MarinatorRegistry registry = MarinatorRegistry.newWeakRegistry();
+        WeakReference<ClassLoader> loader = registerPlugin(registry);
+
+        for (int i = 0; i < MAX_GC_ATTEMPTS && loader.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertThat(loader.get()).isNull();
+
+        // The registry itself is still usable.
+        RecordingInjector injector = new RecordingInjector();
+        registry.registerInjector(Base.class, injector, true /* strict */);
+        registry.inject(new Base());
+        assertThat(injector.mCount).isEqualTo(1);
+    }
+
+    @Test
+    public void testCollectedScopeReleasesInjectors() throws Exception {
+        MarinatorRegistry registry = MarinatorRegistry.newWeakRegistry();
+        WeakReference<RecordingInjector> injector = registerInScope(registry);
+
+        // Base outlives the scope, so its injector has to be let go of by the next write.
+        for (int i = 0; i < MAX_GC_ATTEMPTS && injector.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+            registry.registerInjector(Middle.class, new RecordingInjector(), true /* strict */);
+            registry.unregisterInjector(Middle.class);
+        }
+        assertThat(injector.get()).isNull();
+    }
+
+    @Test
+    public void testRegularRegistryKeepsClassLoader() throws Exception {
+        MarinatorRegistry registry = new MarinatorRegistry();
+        WeakReference<ClassLoader> loader = registerPlugin(registry);
+
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        assertThat(loader.get()).isNotNull();
+        registry.clear();
+    }
+
+    /**
+     * Loads a "plugin" class in its own class loader, registers an injector for it that holds on
+     * to the plugin (just like a component would), and injects an instance.
+     */
+    private static WeakReference<ClassLoader> registerPlugin(MarinatorRegistry registry)
+            throws Exception {
+        PluginClassLoader loader = new PluginClassLoader();
+        Class<?> pluginClass = loader.loadClass(PluginObject.class.getName());
+        assertThat(pluginClass).isNotSameAs(PluginObject.class);
+
+        PluginInjector injector = new PluginInjector(pluginClass);
+        registry.registerInjector(pluginClass, injector, true /* strict */);
+        registry.inject(pluginClass.getDeclaredConstructor().newInstance());
+        assertThat(injector.mCount).isEqualTo(1);
+        return new WeakReference<ClassLoader>(loader);
+    }
+
+    private static WeakReference<RecordingInjector> registerInScope(MarinatorRegistry registry) {
+        MarinatorRegistry scope = registry.newScope();
+        RecordingInjector injector = new RecordingInjector();
+        scope.registerInjector(Base.class, injector, true /* strict */);
+        scope.inject(new Base());
+        assertThat(injector.mCount).isEqualTo(1);
+        return new WeakReference<>(injector);
+    }
+
+    public static class PluginObject {
+    }
+
+    /**
+     * Loads its own copy of {@link PluginObject}, and delegates everything else to the parent.
+     */
+    private static final class PluginClassLoader extends ClassLoader {
+        PluginClassLoader() {
+            super(WeakRegistryTest.class.getClassLoader());
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.equals(PluginObject.class.getName())) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> clazz = findLoadedClass(name);
+                if (clazz == null) {
+                    byte[] bytes = readClass(name);
+                    clazz = defineClass(name, bytes, 0, bytes.length);
+                }
+                return clazz;
+            }
+        }
+
+        private byte[] readClass(String name) throws ClassNotFoundException {
+            String resource = name.replace('.', '/') + ".class";
+            try (InputStream in = getParent().getResourceAsStream(resource)) {
+                if (in == null) {
+                    throw new ClassNotFoundException(name);
+                }
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+                return out.toByteArray();
+            } catch (IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+        }
+    }
+
+    private static final class PluginInjector implements Marinator.Injector {
+        private final Class<?> mPluginClass;
+        int mCount;
+
+        PluginInjector(Class<?> pluginClass) {
+            mPluginClass = pluginClass;
+        }
+
+        @Override
+        public void inject(Object obj) {
+            if (obj.getClass() != mPluginClass) {
+                throw new IllegalArgumentException("Unexpected object " + obj);
+            }
+            mCount++;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.blueapron.marinator;
+
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Holds a component for the generated MarinadeHelper. The component is either provided up front,
+ * or built from a supplier the first time it's needed. Lazy construction is thread-safe and
+ * happens exactly once - if the supplier throws, the next caller tries again.
+ *
+ * Async holders start building the component on an executor right away. Until it's built, get()
+ * blocks on just this holder - or builds the component itself, if the executor hasn't got to it
+ * yet - and once it's built, get() is a single volatile read.
+ *
+ * Prebuilt helpers create their holders unbound, and bind each one once when prepared.
+ */
+public final class ComponentHolder<T> {
+
+    private volatile T mComponent;
+    private Supplier<T> mSupplier;
+
+    private ComponentHolder(T component, Supplier<T> supplier) {
+        mComponent = component;
+        mSupplier = supplier;
+    }
+
+    public static <T> ComponentHolder<T> of(T component) {
+        if (component == null) {
+            throw new NullPointerException("Component cannot be null!");
+        }
+        return new ComponentHolder<>(component, null /* supplier */);
+    }
+
+    public static <T> ComponentHolder<T> lazy(Supplier<T> supplier) {
+        if (supplier == null) {
+            throw new NullPointerException("Supplier cannot be null!");
+        }
+        return new ComponentHolder<>(null /* component */, supplier);
+    }
+
+    public static <T> ComponentHolder<T> async(Supplier<T> supplier, Executor executor) {
+        if (executor == null) {
+            throw new NullPointerException("Executor cannot be null!");
+        }
+        final ComponentHolder<T> holder = lazy(supplier);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    holder.get();
+                } catch (RuntimeException e) {
+                    // Leave the component unbuilt, so the first injection tries again and
+                    // surfaces the failure to its caller.
+                }
+            }
+        });
+        return holder;
+    }
+
+    public static <T> ComponentHolder<T> unbound() {
+        return new ComponentHolder<>(null /* component */, null /* supplier */);
+    }
+
+    public synchronized void bind(T component) {
+        if (component == null) {
+            throw new NullPointerException("Component cannot be null!");
+        }
+        checkUnbound();
+        mComponent = component;
+    }
+
+    public synchronized void bindLazy(Supplier<T> supplier) {
+        if (supplier == null) {
+            throw new NullPointerException("Supplier cannot be null!");
+        }
+        checkUnbound();
+        mSupplier = supplier;
+    }
+
+    private void checkUnbound() {
+        if (mComponent != null || mSupplier != null) {
+            throw new IllegalStateException("Component has already been bound!");
+        }
+    }
+
+    public T get() {
+        T component = mComponent;
+        if (component != null) {
+            return component;
+        }
+        return create();
+    }
+
+    private synchronized T create() {
+        // Check again now that we hold the lock, in case another thread beat us to it.
+        T component = mComponent;
+        if (component == null) {
+            if (mSupplier == null) {
+                throw new IllegalStateException("Component has not been bound yet!");
+            }
+            component = mSupplier.get();
+            if (component == null) {
+                throw new IllegalStateException("Supplier returned a null component!");
+            }
+            mComponent = component;
+            // Drop the supplier so we don't keep anything it captured alive.
+            mSupplier = null;
+        }
+        return component;
+    }
+}
@@ -0,0 +1,200 @@
+package com.blueapron.marinator;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Listener which collects injection counts and latencies. Install it with
+ * {@link Marinator#setInjectionListener}, then periodically call {@link #snapshot()} to export
+ * the numbers to a metrics system. Recording is lock-free - contended counters are striped across
+ * threads using {@link LongAdder}.
+ */
+public final class InjectionMetrics implements Marinator.InjectionListener {
+
+    // Latencies are bucketed by powers of two: bucket 0 holds 0ns, and bucket i holds durations
+    // in [2^(i-1), 2^i) nanoseconds. The last bucket, 63, ends at Long.MAX_VALUE.
+    private static final int BUCKET_COUNT = Long.SIZE;
+
+    private final LongAdder mStrictCount = new LongAdder();
+    private final LongAdder mLooseCount = new LongAdder();
+    private final LongAdder mMissCount = new LongAdder();
+    private final ConcurrentHashMap<Class<?>, TypeStats> mTypeStats =
+            new ConcurrentHashMap<>();
+
+    @Override
+    public void onInject(Class<?> type, Marinator.Resolution resolution, long durationNanos) {
+        TypeStats stats = mTypeStats.get(type);
+        if (stats == null) {
+            stats = new TypeStats();
+            TypeStats existing = mTypeStats.putIfAbsent(type, stats);
+            if (existing != null) {
+                stats = existing;
+            }
+        }
+
+        switch (resolution) {
+            case STRICT:
+                mStrictCount.increment();
+                break;
+            case LOOSE:
+                mLooseCount.increment();
+                break;
+            case MISS:
+                mMissCount.increment();
+                stats.mMisses.increment();
+                return;
+        }
+        stats.mCount.increment();
+        stats.mTotalNanos.add(durationNanos);
+        stats.mBuckets[bucketFor(durationNanos)].increment();
+    }
+
+    /**
+     * Returns a point-in-time copy of the collected metrics. Counters keep running while the
+     * snapshot is taken, so totals may be off by the injections that happen concurrently.
+     */
+    public Snapshot snapshot() {
+        Map<Class<?>, TypeSnapshot> types = new HashMap<>();
+        for (Map.Entry<Class<?>, TypeStats> entry : mTypeStats.entrySet()) {
+            types.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return new Snapshot(mStrictCount.sum(), mLooseCount.sum(), mMissCount.sum(),
+                Collections.unmodifiableMap(types));
+    }
+
+    /**
+     * Clears all collected metrics.
+     */
+    public void reset() {
+        mStrictCount.reset();
+        mLooseCount.reset();
+        mMissCount.reset();
+        mTypeStats.clear();
+    }
+
+    private static int bucketFor(long durationNanos) {
+        return durationNanos <= 0 ? 0 : Long.SIZE - Long.numberOfLeadingZeros(durationNanos);
+    }
+
+    private static final class TypeStats {
+        final LongAdder mCount = new LongAdder();
+        final LongAdder mMisses = new LongAdder();
+        final LongAdder mTotalNanos = new LongAdder();
+        final LongAdder[] mBuckets = new LongAdder[BUCKET_COUNT];
+
+        TypeStats() {
+            for (int i = 0; i < mBuckets.length; i++) {
+                mBuckets[i] = new LongAdder();
+            }
+        }
+
+        TypeSnapshot snapshot() {
+            long[] buckets = new long[mBuckets.length];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = mBuckets[i].sum();
+            }
+            return new TypeSnapshot(mCount.sum(), mMisses.sum(), mTotalNanos.sum(), buckets);
+        }
+    }
+
+    /**
+     * Immutable copy of the metrics collected across all types.
+     */
+    public static final class Snapshot {
+        private final long mStrictCount;
+        private final long mLooseCount;
+        private final long mMissCount;
+        private final Map<Class<?>, TypeSnapshot> mTypes;
+
+        Snapshot(long strictCount, long looseCount, long missCount,
+                Map<Class<?>, TypeSnapshot> types) {
+            mStrictCount = strictCount;
+            mLooseCount = looseCount;
+            mMissCount = missCount;
+            mTypes = types;
+        }
+
+        public long getStrictCount() {
+            return mStrictCount;
+        }
+
+        public long getLooseCount() {
+            return mLooseCount;
+        }
+
+        public long getMissCount() {
+            return mMissCount;
+        }
+
+        public long getTotalCount() {
+            return mStrictCount + mLooseCount + mMissCount;
+        }
+
+        public Map<Class<?>, TypeSnapshot> getTypes() {
+            return mTypes;
+        }
+    }
+
+    /**
+     * Immutable copy of the metrics collected for a single type.
+     */
+    public static final class TypeSnapshot {
+        private final long mCount;
+        private final long mMissCount;
+        private final long mTotalNanos;
+        private final long[] mBuckets;
+
+        TypeSnapshot(long count, long missCount, long totalNanos, long[] buckets) {
+            mCount = count;
+            mMissCount = missCount;
+            mTotalNanos = totalNanos;
+            mBuckets = buckets;
+        }
+
+        /**
+         * Number of successful injections of this type.
+         */
+        public long getCount() {
+            return mCount;
+        }
+
+        /**
+         * Number of times this type was injected without an injector.
+         */
+        public long getMissCount() {
+            return mMissCount;
+        }
+
+        public long getTotalNanos() {
+            return mTotalNanos;
+        }
+
+        public long getMeanNanos() {
+            return mCount == 0 ? 0 : mTotalNanos / mCount;
+        }
+
+        /**
+         * Returns an upper bound for the given percentile (between 0 and 100) of injection
+         * latency. Latencies are recorded in power of two buckets, so this is accurate to within
+         * a factor of two.
+         */
+        public long getPercentileNanos(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("Percentile must be between 0 and 100!");
+            }
+            long target = (long) Math.ceil(mCount * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < mBuckets.length; i++) {
+                seen += mBuckets[i];
+                if (seen >= target && seen > 0) {
+                    // For the last bucket, (1L << 63) - 1 wraps around to Long.MAX_VALUE.
+                    return i == 0 ? 0 : (1L << i) - 1;
+                }
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.blueapron.marinator;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The list of types injected during a run of the app, in the order they were first injected.
+ * Record a profile during startup with a {@link Recorder}, save it, and pass it to
+ * {@link Marinator#prewarm} on the next launch to get the first injection of each type out of the
+ * way on a background thread.
+ *
+ * Profiles are stored as plain text, with one class name per line.
+ */
+public final class InjectionProfile {
+
+    private final List<String> mClassNames;
+
+    private InjectionProfile(List<String> classNames) {
+        mClassNames = Collections.unmodifiableList(classNames);
+    }
+
+    /**
+     * Returns the names of the recorded types, in the order they were first injected.
+     */
+    public List<String> getClassNames() {
+        return mClassNames;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        for (String className : mClassNames) {
+            writer.write(className);
+            writer.write('\n');
+        }
+        writer.flush();
+    }
+
+    public void writeTo(File file) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            writeTo(out);
+        }
+    }
+
+    public static InjectionProfile readFrom(InputStream in) throws IOException {
+        BufferedReader reader =
+                new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        List<String> classNames = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (!line.isEmpty()) {
+                classNames.add(line);
+            }
+        }
+        return new InjectionProfile(classNames);
+    }
+
+    public static InjectionProfile readFrom(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return readFrom(in);
+        }
+    }
+
+    /**
+     * Listener which records every type successfully injected while it's installed. Install it
+     * with {@link Marinator#setInjectionListener} at the start of startup, and remove it once
+     * startup is done.
+     */
+    public static final class Recorder implements Marinator.InjectionListener {
+        private final Map<Class<?>, Boolean> mSeen = new ConcurrentHashMap<>();
+        private final Queue<Class<?>> mOrder = new ConcurrentLinkedQueue<>();
+
+        @Override
+        public void onInject(Class<?> type, Marinator.Resolution resolution, long durationNanos) {
+            // Types are only queued the first time they're seen, so the queue stays small.
+            if (resolution != Marinator.Resolution.MISS && !mSeen.containsKey(type)
+                    && mSeen.put(type, Boolean.TRUE) == null) {
+                mOrder.add(type);
+            }
+        }
+
+        /**
+         * Returns the types recorded so far.
+         */
+        public InjectionProfile toProfile() {
+            List<String> classNames = new ArrayList<>();
+            for (Class<?> type : mOrder) {
+                classNames.add(type.getName());
+            }
+            return new InjectionProfile(classNames);
+        }
+    }
+}
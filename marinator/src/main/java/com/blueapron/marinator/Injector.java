@@ -6,10 +6,12 @@ import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
 /**
- * Annotation specifying that this method injects a particular class.
+ * Annotation specifying that this method injects a particular class. This is retained in the
+ * class file so that incremental builds can reprocess unchanged components from their compiled
+ * classes.
  */
 @Target(ElementType.METHOD)
-@Retention(RetentionPolicy.SOURCE)
+@Retention(RetentionPolicy.CLASS)
 public @interface Injector {
 
     /**
@@ -20,5 +22,14 @@ public @interface Injector {
      * if there's no potential ambiguity here, which is why this is opt-in.
      */
     boolean strict() default true;
+
+    /**
+     * Whether to also generate a factory for this class, so {@link Marinator#newInstance} can
+     * construct and inject it without reflection. The class needs a no-arg constructor visible
+     * to the generated code. Don't set this for classes that inject themselves in their
+     * constructor - the factory injects what it constructs, so they'd be injected twice. The
+     * processor can't see constructor bodies, so it can't check this for you.
+     */
+    boolean factory() default false;
 }
 
@@ -0,0 +1,92 @@
+package com.blueapron.marinator;
+
+import com.blueapron.marinator.Marinator.InjectionListener;
+import com.blueapron.marinator.Marinator.RegistrationListener;
+
+import java.util.Arrays;
+
+/**
+ * Dispatches to every listener added with {@link MarinatorRegistry#addInjectionListener} or
+ * {@link MarinatorRegistry#addRegistrationListener}. Immutable - adding or removing a listener
+ * builds a new list, so the registry can keep publishing a single listener through one volatile
+ * field. With only one listener installed, that listener is used directly.
+ */
+final class ListenerList implements InjectionListener, RegistrationListener {
+
+    private final Object[] mListeners;
+
+    private ListenerList(Object[] listeners) {
+        mListeners = listeners;
+    }
+
+    /**
+     * Returns the listener to install so that both the current listener (if any) and the new one
+     * are notified.
+     */
+    static Object add(Object current, Object listener) {
+        if (listener == null) {
+            throw new NullPointerException("Listener cannot be null!");
+        }
+        if (current == null) {
+            return listener;
+        }
+        Object[] existing = current instanceof ListenerList
+                ? ((ListenerList) current).mListeners : new Object[] { current };
+        Object[] listeners = Arrays.copyOf(existing, existing.length + 1);
+        listeners[existing.length] = listener;
+        return new ListenerList(listeners);
+    }
+
+    /**
+     * Returns the listener to install so that the given listener is no longer notified, leaving
+     * any others in place.
+     */
+    static Object remove(Object current, Object listener) {
+        if (current == listener) {
+            return null;
+        }
+        if (!(current instanceof ListenerList)) {
+            return current;
+        }
+        Object[] existing = ((ListenerList) current).mListeners;
+        Object[] listeners = new Object[existing.length];
+        int count = 0;
+        for (Object candidate : existing) {
+            if (candidate != listener) {
+                listeners[count++] = candidate;
+            }
+        }
+        if (count == existing.length) {
+            return current;
+        }
+        return count == 1 ? listeners[0] : new ListenerList(Arrays.copyOf(listeners, count));
+    }
+
+    @Override
+    public void onInject(Class<?> type, Marinator.Resolution resolution, long durationNanos) {
+        for (Object listener : mListeners) {
+            ((InjectionListener) listener).onInject(type, resolution, durationNanos);
+        }
+    }
+
+    @Override
+    public void onRegister(int count, boolean replace, long durationNanos) {
+        for (Object listener : mListeners) {
+            ((RegistrationListener) listener).onRegister(count, replace, durationNanos);
+        }
+    }
+
+    @Override
+    public void onUnregister(int count, long durationNanos) {
+        for (Object listener : mListeners) {
+            ((RegistrationListener) listener).onUnregister(count, durationNanos);
+        }
+    }
+
+    @Override
+    public void onClear(long durationNanos) {
+        for (Object listener : mListeners) {
+            ((RegistrationListener) listener).onClear(durationNanos);
+        }
+    }
+}
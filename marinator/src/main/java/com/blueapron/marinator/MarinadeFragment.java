@@ -0,0 +1,15 @@
+package com.blueapron.marinator;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a helper generated for a single module. The annotation processor in the app module finds
+ * these on its classpath and generates a MarinadeHelper that prepares all of them together.
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.CLASS)
+public @interface MarinadeFragment {
+}
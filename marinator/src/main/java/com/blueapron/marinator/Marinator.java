@@ -1,77 +1,370 @@
 package com.blueapron.marinator;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Centralized repository for all injectors. This enables us to swap out implementations of
- * injectors trivially during testing.
+ * injectors trivially during testing. The static methods here operate on a root
+ * {@link MarinatorRegistry}, which can also hand out child scopes.
+ *
+ * Set the {@code marinator.weakRegistry} system property to true to make the root registry weak -
+ * see {@link MarinatorRegistry#newWeakRegistry()}. This is read once, when this class is
+ * initialized.
  */
 public final class Marinator {
 
-    private static final Map<Class, Injector> STRICT_INJECTORS = new HashMap<>();
-    private static final Map<Class, Injector> LOOSE_INJECTORS = new HashMap<>();
-    private static boolean sStrictMode = true;
+    private static final MarinatorRegistry ROOT = Boolean.getBoolean("marinator.weakRegistry")
+            ? MarinatorRegistry.newWeakRegistry() : new MarinatorRegistry();
+
+    // Per-thread override registries. The count lets threads skip the thread local lookup
+    // entirely whenever no thread has an override installed, which is the normal case outside
+    // of tests.
+    private static final ThreadLocal<MarinatorRegistry> OVERRIDES = new ThreadLocal<>();
+    private static final AtomicInteger OVERRIDE_COUNT = new AtomicInteger();
 
     // Hide to avoid construction.
     private Marinator() {
     }
 
-    public static void registerInjector(Class clazz, Injector injector, boolean strict) {
-        synchronized (STRICT_INJECTORS) {
-            if (STRICT_INJECTORS.containsKey(clazz)) {
-                throw new IllegalArgumentException("Cannot register multiple injectors for class!");
-            }
-            STRICT_INJECTORS.put(clazz, injector);
-            if (!strict) {
-                LOOSE_INJECTORS.put(clazz, injector);
-            }
+    /**
+     * Returns the root registry that the static methods on this class operate on.
+     */
+    public static MarinatorRegistry getRegistry() {
+        return ROOT;
+    }
+
+    /**
+     * Creates a child scope of the current registry. See {@link MarinatorRegistry#newScope()}.
+     */
+    public static MarinatorRegistry newScope() {
+        return current().newScope();
+    }
+
+    /**
+     * Installs a new override layer for the calling thread. Until the returned override is
+     * closed, every static method on this class called from this thread - including the
+     * generated MarinadeHelper's registration - operates on the override instead of the shared
+     * registry, falling back to whatever was in place before for types it doesn't register.
+     * Closing the override restores the previous state. Overrides can be nested.
+     *
+     * This lets tests install their own components and run concurrently with each other. Note
+     * that the override only applies to the calling thread; objects injected on other threads
+     * still use the shared registry.
+     */
+    public static ThreadOverride override() {
+        MarinatorRegistry previous = OVERRIDES.get();
+        MarinatorRegistry registry = (previous == null ? ROOT : previous).newScope();
+        OVERRIDES.set(registry);
+        OVERRIDE_COUNT.incrementAndGet();
+        return new ThreadOverride(registry, previous);
+    }
+
+    static MarinatorRegistry current() {
+        if (OVERRIDE_COUNT.get() == 0) {
+            return ROOT;
         }
+        MarinatorRegistry registry = OVERRIDES.get();
+        return registry == null ? ROOT : registry;
+    }
+
+    static boolean hasOverrides() {
+        return OVERRIDE_COUNT.get() != 0;
+    }
+
+    /**
+     * Registers a single injector. See {@link MarinatorRegistry#registerInjector}, and prefer
+     * {@link #registerInjectors} for more than a handful of types.
+     */
+    public static void registerInjector(Class clazz, Injector injector, boolean strict) {
+        current().registerInjector(clazz, injector, strict);
+    }
+
+    /**
+     * Registers a whole table of injectors at once. See
+     * {@link MarinatorRegistry#registerInjectors}.
+     */
+    public static Registration registerInjectors(Class[] classes, Injector[] injectors,
+            boolean[] strict) {
+        return current().registerInjectors(classes, injectors, strict);
+    }
+
+    /**
+     * Atomically replaces a whole table of injectors. See
+     * {@link MarinatorRegistry#replaceInjectors}.
+     */
+    public static Registration replaceInjectors(Class[] classes, Injector[] injectors,
+            boolean[] strict) {
+        return current().replaceInjectors(classes, injectors, strict);
     }
 
+    /**
+     * Removes the injector for a single type. See {@link MarinatorRegistry#unregisterInjector}.
+     */
     public static void unregisterInjector(Class clazz) {
-        synchronized (STRICT_INJECTORS) {
-            STRICT_INJECTORS.remove(clazz);
-        }
+        current().unregisterInjector(clazz);
     }
 
+    /**
+     * Removes every injector from the current registry. If the calling thread has an override
+     * installed, only the override is cleared.
+     */
     public static void clear() {
-        synchronized (STRICT_INJECTORS) {
-            STRICT_INJECTORS.clear();
-        }
+        current().clear();
+    }
+
+    /**
+     * Sets the listener notified about every injection, or null to stop listening. Instrumentation
+     * is opt-in: with no listener set, injection pays for a single extra branch.
+     *
+     * @see InjectionMetrics
+     */
+    public static void setInjectionListener(InjectionListener listener) {
+        ROOT.setInjectionListener(listener);
+    }
+
+    /**
+     * Adds a listener notified about every injection, alongside any already installed. See
+     * {@link MarinatorRegistry#addInjectionListener}.
+     */
+    public static void addInjectionListener(InjectionListener listener) {
+        ROOT.addInjectionListener(listener);
+    }
+
+    public static void removeInjectionListener(InjectionListener listener) {
+        ROOT.removeInjectionListener(listener);
+    }
+
+    /**
+     * Sets the listener notified about every registration, removal and clear, or null to stop
+     * listening.
+     */
+    public static void setRegistrationListener(RegistrationListener listener) {
+        ROOT.setRegistrationListener(listener);
+    }
+
+    /**
+     * Adds a listener notified about every registration, removal and clear, alongside any already
+     * installed.
+     */
+    public static void addRegistrationListener(RegistrationListener listener) {
+        ROOT.addRegistrationListener(listener);
+    }
+
+    public static void removeRegistrationListener(RegistrationListener listener) {
+        ROOT.removeRegistrationListener(listener);
     }
 
     public static void inject(Object obj) {
-        Class clazz = obj.getClass();
-        Injector injector = getInjector(clazz);
-        if (injector == null) {
-            throw new IllegalStateException("No injector for type " + clazz.getSimpleName());
-        }
-        injector.inject(obj);
+        current().inject(obj);
     }
 
-    private static Injector getInjector(Class clazz) {
-        synchronized (STRICT_INJECTORS) {
-            // Look for the direct injector to use. If we find one, we're done!
-            Injector injector = STRICT_INJECTORS.get(clazz);
-            if (injector != null) {
-                return injector;
-            }
+    /**
+     * Injects the object if it has an injector, without throwing on a miss. See
+     * {@link MarinatorRegistry#tryInject}.
+     */
+    public static boolean tryInject(Object obj) {
+        return current().tryInject(obj);
+    }
+
+    /**
+     * Returns true if objects of exactly the given class can be injected.
+     */
+    public static boolean hasInjector(Class clazz) {
+        return current().hasInjector(clazz);
+    }
 
-            // If loose injection is allowed for this class, check to see if we can inject via
-            // parent class.
-            for (Class parent : LOOSE_INJECTORS.keySet()) {
-                if (parent.isAssignableFrom(clazz)) {
-                    return STRICT_INJECTORS.get(parent);
-                }
+    /**
+     * Constructs and injects a new instance of the given class. See
+     * {@link MarinatorRegistry#newInstance}.
+     */
+    public static <T> T newInstance(Class<T> clazz) {
+        return current().newInstance(clazz);
+    }
+
+    /**
+     * Returns a handle which injects objects of exactly the given class, resolving the injector
+     * once rather than on every call. The handle works against the shared registry, but defers to
+     * {@link #inject} while a thread override is installed. See {@link ResolvedInjector}.
+     */
+    public static <T> ResolvedInjector<T> injectorFor(Class<T> clazz) {
+        return new ResolvedInjector<>(ROOT, clazz, true /* followsOverrides */);
+    }
+
+    /**
+     * Injects every object in the given iterable. See {@link MarinatorRegistry#injectAll}.
+     */
+    public static void injectAll(Iterable<?> objs) {
+        current().injectAll(objs);
+    }
+
+    /**
+     * Injects every object in the given array. See {@link MarinatorRegistry#injectAll}.
+     */
+    public static void injectAll(Object[] objs) {
+        current().injectAll(objs);
+    }
+
+    /**
+     * Injects the given object on the given executor. The registry is picked on the calling
+     * thread, so a thread override applies even though injection happens elsewhere. See
+     * {@link MarinatorRegistry#injectAsync}.
+     */
+    public static CompletableFuture<Void> injectAsync(Object obj, Executor executor) {
+        return current().injectAsync(obj, executor);
+    }
+
+    /**
+     * Injects every object in the given list in parallel on the given executor. See
+     * {@link MarinatorRegistry#injectAllAsync}.
+     */
+    public static CompletableFuture<Void> injectAllAsync(List<?> objs, Executor executor) {
+        return current().injectAllAsync(objs, executor);
+    }
+
+    /**
+     * Pre-warms the types in the given profile on a new low priority background thread. See
+     * {@link MarinatorRegistry#prewarm}.
+     */
+    public static CompletableFuture<Void> prewarm(InjectionProfile profile) {
+        return prewarm(profile, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                Thread thread = new Thread(command, "marinator-prewarm");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                thread.start();
             }
+        });
+    }
 
-            // No injector found - ah well, we did our best.
-            return null;
-        }
+    /**
+     * Pre-warms the types in the given profile on the given executor. See
+     * {@link MarinatorRegistry#prewarm}.
+     */
+    public static CompletableFuture<Void> prewarm(InjectionProfile profile, Executor executor) {
+        return current().prewarm(profile, executor);
+    }
+
+    /**
+     * Pre-warms the types in the given profile, loading them with the given class loader. See
+     * {@link MarinatorRegistry#prewarm(InjectionProfile, ClassLoader, Executor)}.
+     */
+    public static CompletableFuture<Integer> prewarm(InjectionProfile profile,
+            ClassLoader loader, Executor executor) {
+        return current().prewarm(profile, loader, executor);
     }
 
     public interface Injector {
         void inject(Object obj);
     }
+
+    /**
+     * Implemented by injectors which can also construct the types they're registered for. The
+     * generated injectors implement this for every type whose injector sets
+     * {@link com.blueapron.marinator.Injector#factory}.
+     */
+    public interface Factory {
+        /**
+         * Constructs and injects a new instance of the type this injector is registered for, or
+         * returns null if it can't construct that type.
+         */
+        Object newInstance();
+    }
+
+    /**
+     * An override layer installed for a single thread by {@link #override()}.
+     */
+    public static final class ThreadOverride implements AutoCloseable {
+        private final MarinatorRegistry mRegistry;
+        private final MarinatorRegistry mPrevious;
+        private boolean mClosed;
+
+        ThreadOverride(MarinatorRegistry registry, MarinatorRegistry previous) {
+            mRegistry = registry;
+            mPrevious = previous;
+        }
+
+        /**
+         * Returns the registry backing this override.
+         */
+        public MarinatorRegistry getRegistry() {
+            return mRegistry;
+        }
+
+        /**
+         * Removes the override, restoring the registry that was in place when it was installed.
+         * This must be called from the thread that installed the override, and overrides must be
+         * closed in the reverse order they were installed.
+         */
+        @Override
+        public void close() {
+            if (mClosed) {
+                return;
+            }
+            if (OVERRIDES.get() != mRegistry) {
+                throw new IllegalStateException("Override is not the current one for this thread!");
+            }
+            mClosed = true;
+            if (mPrevious == null) {
+                OVERRIDES.remove();
+            } else {
+                OVERRIDES.set(mPrevious);
+            }
+            OVERRIDE_COUNT.decrementAndGet();
+        }
+    }
+
+    /**
+     * How the injector for an object was found.
+     */
+    public enum Resolution {
+        /** The object's class has its own injector. */
+        STRICT,
+        /** The object was injected by the loose injector of a superclass. */
+        LOOSE,
+        /** No injector was found for the object. */
+        MISS
+    }
+
+    /**
+     * Listener notified after every injection. This is called on the injecting thread, so
+     * implementations should be fast and thread-safe, and must not throw.
+     */
+    public interface InjectionListener {
+        /**
+         * @param type The runtime class of the injected object.
+         * @param resolution How the injector was found.
+         * @param durationNanos How long the injector took to run, or 0 for a miss.
+         */
+        void onInject(Class<?> type, Resolution resolution, long durationNanos);
+    }
+
+    /**
+     * Listener notified after every write to a registry. This is called on the writing thread
+     * once the write is visible, so implementations should be thread-safe and must not throw.
+     * Durations include any time spent waiting for other writes to the same registry.
+     */
+    public interface RegistrationListener {
+        /**
+         * @param count The number of types registered - more than one for a whole table, ie
+         *              from the generated MarinadeHelper.
+         * @param replace Whether existing injectors were allowed to be replaced.
+         * @param durationNanos How long the registration took.
+         */
+        void onRegister(int count, boolean replace, long durationNanos);
+
+        /**
+         * @param count The number of types removed.
+         * @param durationNanos How long the removal took.
+         */
+        void onUnregister(int count, long durationNanos);
+
+        /**
+         * @param durationNanos How long the clear took.
+         */
+        void onClear(long durationNanos);
+    }
 }
@@ -0,0 +1,1206 @@
+package com.blueapron.marinator;
+
+import com.blueapron.marinator.Marinator.Factory;
+import com.blueapron.marinator.Marinator.InjectionListener;
+import com.blueapron.marinator.Marinator.Injector;
+import com.blueapron.marinator.Marinator.RegistrationListener;
+import com.blueapron.marinator.Marinator.Resolution;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * A registry of injectors. The static {@link Marinator} methods operate on the root registry, but
+ * registries can also create child scopes - ie, per request or per tenant. A scope first looks for
+ * an injector among its own registrations, and falls back to its parent if it doesn't have one.
+ * Scopes are cheap to create and simply get garbage collected once they're no longer used - the
+ * parent holds no reference to its children, and registering into a scope never touches the
+ * parent.
+ *
+ * A regular registry holds strong references to every registered class and injector. Apps which
+ * load and unload code at runtime - ie, plugins or hot reloading - should use
+ * {@link #newWeakRegistry()} instead, so that unloaded classes and their components can be
+ * garbage collected.
+ */
+public final class MarinatorRegistry {
+
+    // Marker cached for classes that have no injector, since the cache can't hold nulls.
+    private static final Injector NO_INJECTOR = new NoInjector();
+
+    // Number of chunks per processor that parallel injection splits a list into. A few chunks per
+    // processor keeps every thread busy when some objects are much slower to inject than others.
+    private static final int CHUNKS_PER_PROCESSOR = 4;
+
+    private final MarinatorRegistry mParent;
+    private final MarinatorRegistry mRoot;
+
+    // Guards all writes to the registry. Reads never take this lock - instead, every write
+    // publishes a brand new immutable snapshot through the volatile field below.
+    private final Object mLock = new Object();
+    private volatile Snapshot mSnapshot;
+
+    // Bumped by every write that removes or replaces an injector, as opposed to only adding new
+    // ones. Code that calls components directly uses this to tell whether it's still safe to.
+    private volatile int mEpoch;
+
+    // Only used on the root registry, which reports injections for every scope beneath it.
+    private volatile InjectionListener mListener;
+    private volatile RegistrationListener mRegistrationListener;
+
+    /**
+     * Creates a new root registry, independent of the one used by {@link Marinator}.
+     */
+    public MarinatorRegistry() {
+        this(null /* parent */, MapSnapshot.empty());
+    }
+
+    private MarinatorRegistry(MarinatorRegistry parent, Snapshot snapshot) {
+        mParent = parent;
+        mRoot = parent == null ? this : parent.mRoot;
+        mSnapshot = snapshot;
+    }
+
+    /**
+     * Creates a new root registry which doesn't keep registered classes or their injectors alive.
+     * Each injector is stored alongside the class it's registered for, so once nothing else
+     * refers to the class, its class loader, or the injector's component, they can all be
+     * garbage collected - even while the registry is still in use. Registrations never need to
+     * be removed by hand for this to work.
+     *
+     * Note that an injector registered for a class from a longer lived class loader - ie, a loose
+     * injector for an interface of the host app - is kept alive as long as that class is. Scopes
+     * of a weak registry are weak as well. Requires {@link ClassValue}, so this isn't available
+     * on older versions of Android.
+     *
+     * Unlike a regular registry, a weak registry updates each type in place. Registering or
+     * removing a table is still all or nothing, but a concurrent batch injection may see part of
+     * the change.
+     */
+    public static MarinatorRegistry newWeakRegistry() {
+        return new MarinatorRegistry(null /* parent */, WeakSnapshot.empty());
+    }
+
+    /**
+     * Creates a child scope of this registry. Injectors registered with the scope are only
+     * visible through the scope, and take precedence over any registered with this registry.
+     */
+    public MarinatorRegistry newScope() {
+        return new MarinatorRegistry(this, mSnapshot.cleared());
+    }
+
+    /**
+     * Returns the registry this scope falls back to, or null for a root registry.
+     */
+    public MarinatorRegistry getParent() {
+        return mParent;
+    }
+
+    /**
+     * Sets the listener notified about every injection through this registry tree, or null to
+     * stop listening. The listener is shared by the root registry and all of its scopes.
+     */
+    public void setInjectionListener(InjectionListener listener) {
+        synchronized (mRoot.mLock) {
+            mRoot.mListener = listener;
+        }
+    }
+
+    /**
+     * Adds a listener notified about every injection through this registry tree, alongside any
+     * that are already installed. Unlike {@link #setInjectionListener}, this never displaces
+     * another listener.
+     */
+    public void addInjectionListener(InjectionListener listener) {
+        synchronized (mRoot.mLock) {
+            mRoot.mListener = (InjectionListener) ListenerList.add(mRoot.mListener, listener);
+        }
+    }
+
+    /**
+     * Removes a listener added with {@link #addInjectionListener}, leaving any others in place.
+     */
+    public void removeInjectionListener(InjectionListener listener) {
+        synchronized (mRoot.mLock) {
+            mRoot.mListener = (InjectionListener) ListenerList.remove(mRoot.mListener, listener);
+        }
+    }
+
+    /**
+     * Sets the listener notified about every write to this registry tree, or null to stop
+     * listening. The listener is shared by the root registry and all of its scopes.
+     */
+    public void setRegistrationListener(RegistrationListener listener) {
+        synchronized (mRoot.mLock) {
+            mRoot.mRegistrationListener = listener;
+        }
+    }
+
+    /**
+     * Adds a listener notified about every write to this registry tree, alongside any that are
+     * already installed.
+     */
+    public void addRegistrationListener(RegistrationListener listener) {
+        synchronized (mRoot.mLock) {
+            mRoot.mRegistrationListener = (RegistrationListener) ListenerList.add(
+                    mRoot.mRegistrationListener, listener);
+        }
+    }
+
+    /**
+     * Removes a listener added with {@link #addRegistrationListener}, leaving any others in
+     * place.
+     */
+    public void removeRegistrationListener(RegistrationListener listener) {
+        synchronized (mRoot.mLock) {
+            mRoot.mRegistrationListener = (RegistrationListener) ListenerList.remove(
+                    mRoot.mRegistrationListener, listener);
+        }
+    }
+
+    /**
+     * Registers a single injector. Lookups never lock, so every write copies the registry's
+     * table and publishes the copy - registering n types one at a time this way costs O(n^2).
+     * Use {@link #registerInjectors} to register more than a handful of types.
+     */
+    public void registerInjector(Class clazz, Injector injector, boolean strict) {
+        RegistrationListener listener = mRoot.mRegistrationListener;
+        long start = listener == null ? 0 : System.nanoTime();
+        synchronized (mLock) {
+            Editor editor = mSnapshot.edit(1 /* additions */);
+            if (editor.get(clazz) != null) {
+                throw new IllegalArgumentException("Cannot register multiple injectors for class!");
+            }
+            editor.put(clazz, injector, strict);
+            mSnapshot = editor.commit();
+        }
+        if (listener != null) {
+            listener.onRegister(1 /* count */, false /* replace */, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Registers a whole table of injectors at once - this is what the generated MarinadeHelper
+     * uses. The registry is copied and published once for the entire table, rather than once per
+     * type, and either every type is registered or (if any is already registered) none are.
+     *
+     * @return A handle which atomically unregisters the whole table when closed.
+     */
+    public Registration registerInjectors(Class[] classes, Injector[] injectors,
+            boolean[] strict) {
+        return putInjectors(classes, injectors, strict, false /* replace */);
+    }
+
+    /**
+     * Like {@link #registerInjectors}, but replaces any injectors already registered for the
+     * given types instead of failing. The swap is atomic: concurrent injections see either the
+     * old injectors or the new ones, and never a moment where a type has none.
+     *
+     * @return A handle which atomically unregisters the whole table when closed.
+     */
+    public Registration replaceInjectors(Class[] classes, Injector[] injectors,
+            boolean[] strict) {
+        return putInjectors(classes, injectors, strict, true /* replace */);
+    }
+
+    private Registration putInjectors(Class[] classes, Injector[] injectors, boolean[] strict,
+            boolean replace) {
+        if (classes.length != injectors.length || classes.length != strict.length) {
+            throw new IllegalArgumentException("Injector table arrays must be the same length!");
+        }
+        // Keep our own copy, so the caller can't change what the handle unregisters.
+        Class[] registered = classes.clone();
+        Injector[] registeredInjectors = injectors.clone();
+        RegistrationListener listener = mRoot.mRegistrationListener;
+        long start = listener == null ? 0 : System.nanoTime();
+        Registration registration;
+        synchronized (mLock) {
+            Editor editor = mSnapshot.edit(registered.length);
+            for (int i = 0; i < registered.length; i++) {
+                if (!replace && editor.get(registered[i]) != null) {
+                    throw new IllegalArgumentException(
+                            "Cannot register multiple injectors for class!");
+                }
+                editor.put(registered[i], registeredInjectors[i], strict[i]);
+            }
+            mSnapshot = editor.commit();
+            if (replace) {
+                mEpoch++;
+            }
+            registration = new Registration(this, registered, registeredInjectors, mEpoch);
+        }
+        if (listener != null) {
+            listener.onRegister(registered.length, replace, System.nanoTime() - start);
+        }
+        return registration;
+    }
+
+    /**
+     * Removes the injector for a single type. Like {@link #registerInjector}, this copies the
+     * whole table; close the {@link Registration} from {@link #registerInjectors} to remove many
+     * types at once.
+     */
+    public void unregisterInjector(Class clazz) {
+        RegistrationListener listener = mRoot.mRegistrationListener;
+        long start = listener == null ? 0 : System.nanoTime();
+        synchronized (mLock) {
+            Snapshot current = mSnapshot;
+            if (current.getDirect(clazz) == null) {
+                return;
+            }
+            Editor editor = current.edit(0 /* additions */);
+            editor.remove(clazz);
+            mSnapshot = editor.commit();
+            mEpoch++;
+        }
+        if (listener != null) {
+            listener.onUnregister(1 /* count */, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Removes a table of injectors in one step. Types that have since been re-registered with a
+     * different injector are left alone, so closing a stale handle can't undo a replacement.
+     */
+    void unregisterInjectors(Class[] classes, Injector[] injectors) {
+        RegistrationListener listener = mRoot.mRegistrationListener;
+        long start = listener == null ? 0 : System.nanoTime();
+        int removed = 0;
+        synchronized (mLock) {
+            Editor editor = mSnapshot.edit(0 /* additions */);
+            for (int i = 0; i < classes.length; i++) {
+                if (editor.get(classes[i]) == injectors[i]) {
+                    editor.remove(classes[i]);
+                    removed++;
+                }
+            }
+            if (removed == 0) {
+                return;
+            }
+            mSnapshot = editor.commit();
+            mEpoch++;
+        }
+        if (listener != null) {
+            listener.onUnregister(removed, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Removes every injector registered with this registry. The parent of a scope is unaffected.
+     */
+    public void clear() {
+        RegistrationListener listener = mRoot.mRegistrationListener;
+        long start = listener == null ? 0 : System.nanoTime();
+        synchronized (mLock) {
+            mSnapshot = mSnapshot.cleared();
+            mEpoch++;
+        }
+        if (listener != null) {
+            listener.onClear(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Returns true if no injector has been removed or replaced since the given epoch, and nobody
+     * is listening to injections.
+     */
+    boolean isUnchangedSince(int epoch) {
+        return mEpoch == epoch && mRoot.mListener == null;
+    }
+
+    /**
+     * Returns a handle which injects objects of exactly the given class without looking the
+     * injector up each time. See {@link ResolvedInjector}.
+     */
+    public <T> ResolvedInjector<T> injectorFor(Class<T> clazz) {
+        return new ResolvedInjector<>(this, clazz, false /* followsOverrides */);
+    }
+
+    /**
+     * Returns the current snapshot of this registry and each of its parents, for
+     * {@link #isCurrent}.
+     */
+    Object[] captureSnapshots() {
+        int depth = 0;
+        for (MarinatorRegistry registry = this; registry != null; registry = registry.mParent) {
+            depth++;
+        }
+        Object[] snapshots = new Object[depth];
+        MarinatorRegistry registry = this;
+        for (int i = 0; i < depth; i++) {
+            snapshots[i] = registry.mSnapshot;
+            registry = registry.mParent;
+        }
+        return snapshots;
+    }
+
+    /**
+     * Returns true if nothing in this registry or its parents has changed since the given
+     * snapshots were captured, and nobody is listening to injections. Every write publishes a new
+     * snapshot, so this is a single comparison per registry.
+     */
+    boolean isCurrent(Object[] snapshots) {
+        if (mRoot.mListener != null) {
+            return false;
+        }
+        MarinatorRegistry registry = this;
+        for (Object snapshot : snapshots) {
+            if (registry.mSnapshot != snapshot) {
+                return false;
+            }
+            registry = registry.mParent;
+        }
+        return true;
+    }
+
+    boolean isObserved() {
+        return mRoot.mListener != null;
+    }
+
+    /**
+     * Returns true if exactly this injector is registered directly for the given class.
+     */
+    boolean isRegistered(Class clazz, Injector injector) {
+        return mSnapshot.getDirect(clazz) == injector;
+    }
+
+    /**
+     * Returns the injector for the given class, or null if there isn't one.
+     */
+    Injector resolveInjector(Class clazz) {
+        return getInjector(mSnapshot, clazz);
+    }
+
+    public void inject(Object obj) {
+        InjectionListener listener = mRoot.mListener;
+        if (listener != null) {
+            if (!injectObserved(obj, listener)) {
+                throw new IllegalStateException(
+                        "No injector for type " + obj.getClass().getSimpleName());
+            }
+            return;
+        }
+
+        Class clazz = obj.getClass();
+        Injector injector = getInjector(mSnapshot, clazz);
+        if (injector == null) {
+            throw new IllegalStateException("No injector for type " + clazz.getSimpleName());
+        }
+        injector.inject(obj);
+    }
+
+    /**
+     * Injects the object if there's an injector for its class. Unlike {@link #inject}, a miss
+     * doesn't throw - misses are cached like any other lookup, so repeating one allocates
+     * nothing. Failures of the injector itself are still thrown.
+     *
+     * @return True if the object was injected.
+     */
+    public boolean tryInject(Object obj) {
+        InjectionListener listener = mRoot.mListener;
+        if (listener != null) {
+            return injectObserved(obj, listener);
+        }
+
+        Injector injector = getInjector(mSnapshot, obj.getClass());
+        if (injector == null) {
+            return false;
+        }
+        injector.inject(obj);
+        return true;
+    }
+
+    /**
+     * Returns true if objects of exactly the given class can be injected, whether strictly or
+     * loosely.
+     */
+    public boolean hasInjector(Class clazz) {
+        if (clazz == null) {
+            throw new NullPointerException("Class cannot be null!");
+        }
+        return getInjector(mSnapshot, clazz) != null;
+    }
+
+    /**
+     * Constructs and injects a new instance of the given class, without reflection. This needs
+     * an injector registered for exactly that class which implements {@link Factory} - generated
+     * injectors do for every type whose @Injector method sets
+     * {@link com.blueapron.marinator.Injector#factory}.
+     *
+     * @throws IllegalStateException If there's no such injector.
+     */
+    public <T> T newInstance(Class<T> clazz) {
+        if (clazz == null) {
+            throw new NullPointerException("Class cannot be null!");
+        }
+        Factory factory = resolveFactory(clazz);
+        InjectionListener listener = mRoot.mListener;
+        if (listener == null) {
+            Object obj = factory == null ? null : factory.newInstance();
+            if (obj == null) {
+                throw new IllegalStateException("No factory for type " + clazz.getSimpleName());
+            }
+            return clazz.cast(obj);
+        }
+
+        long start = System.nanoTime();
+        Object obj = factory == null ? null : factory.newInstance();
+        if (obj == null) {
+            listener.onInject(clazz, Resolution.MISS, 0 /* durationNanos */);
+            throw new IllegalStateException("No factory for type " + clazz.getSimpleName());
+        }
+        listener.onInject(clazz, Resolution.STRICT, System.nanoTime() - start);
+        return clazz.cast(obj);
+    }
+
+    /**
+     * Returns the factory for exactly the given class, or null if there isn't one. Injectors
+     * that only apply loosely would construct an ancestor instead, so they're skipped.
+     */
+    Factory resolveFactory(Class clazz) {
+        // A direct injector in this scope always wins, so that's a single lookup.
+        Injector injector = mSnapshot.getDirect(clazz);
+        if (injector != null) {
+            return injector instanceof Factory ? (Factory) injector : null;
+        }
+        injector = getInjector(mSnapshot, clazz);
+        if (!(injector instanceof Factory)) {
+            return null;
+        }
+        for (MarinatorRegistry registry = mParent; registry != null;
+                registry = registry.mParent) {
+            if (registry.mSnapshot.getDirect(clazz) == injector) {
+                return (Factory) injector;
+            }
+        }
+        return null;
+    }
+
+    private boolean injectObserved(Object obj, InjectionListener listener) {
+        Snapshot snapshot = mSnapshot;
+        Class clazz = obj.getClass();
+        Injector injector = getInjector(snapshot, clazz);
+        Resolution resolution = getResolution(snapshot, clazz, injector);
+        if (injector == null) {
+            listener.onInject(clazz, resolution, 0 /* durationNanos */);
+            return false;
+        }
+        long start = System.nanoTime();
+        injector.inject(obj);
+        listener.onInject(clazz, resolution, System.nanoTime() - start);
+        return true;
+    }
+
+    /**
+     * Injects every object in the given iterable. Each run of objects with the same runtime class
+     * is resolved once and then injected together, and the whole batch is resolved against a
+     * single view of this registry. If an object can't be injected, the exception identifies the
+     * index of the failing element.
+     */
+    public void injectAll(Iterable<?> objs) {
+        Snapshot snapshot = mSnapshot;
+        InjectionListener listener = mRoot.mListener;
+        Class lastClass = null;
+        Injector injector = null;
+        Resolution resolution = null;
+        int index = 0;
+        for (Object obj : objs) {
+            Class clazz = getBatchClass(obj, index);
+            if (clazz != lastClass) {
+                injector = getBatchInjector(snapshot, clazz, index, listener);
+                resolution = listener == null ? null : getResolution(snapshot, clazz, injector);
+                lastClass = clazz;
+            }
+            injectBatchElement(injector, obj, index, listener, resolution);
+            index++;
+        }
+    }
+
+    /**
+     * Injects every object in the given array. See {@link #injectAll(Iterable)}.
+     */
+    public void injectAll(Object[] objs) {
+        Snapshot snapshot = mSnapshot;
+        InjectionListener listener = mRoot.mListener;
+        Class lastClass = null;
+        Injector injector = null;
+        Resolution resolution = null;
+        for (int i = 0; i < objs.length; i++) {
+            Object obj = objs[i];
+            Class clazz = getBatchClass(obj, i);
+            if (clazz != lastClass) {
+                injector = getBatchInjector(snapshot, clazz, i, listener);
+                resolution = listener == null ? null : getResolution(snapshot, clazz, injector);
+                lastClass = clazz;
+            }
+            injectBatchElement(injector, obj, i, listener, resolution);
+        }
+    }
+
+    /**
+     * Injects the given object on the given executor. The returned future completes once the
+     * object has been injected, or completes exceptionally if injection fails.
+     */
+    public CompletableFuture<Void> injectAsync(final Object obj, Executor executor) {
+        if (obj == null) {
+            throw new NullPointerException("Cannot inject null object!");
+        }
+        return CompletableFuture.runAsync(new Runnable() {
+            @Override
+            public void run() {
+                inject(obj);
+            }
+        }, executor);
+    }
+
+    /**
+     * Injects every object in the given list in parallel. The list is split into chunks which
+     * are injected on the given executor - ie, {@code ForkJoinPool.commonPool()} - and the whole
+     * batch is resolved against a single view of this registry. The list must not
+     * be modified until the returned future completes.
+     *
+     * A failure doesn't stop the rest of the batch. Once every object has been attempted, the
+     * future completes exceptionally with an IllegalStateException if any failed; the exception
+     * for each failing element (identifying its index) is attached as a suppressed exception.
+     */
+    public CompletableFuture<Void> injectAllAsync(final List<?> objs, Executor executor) {
+        final Snapshot snapshot = mSnapshot;
+        final int size = objs.size();
+        if (size == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        int processors = Runtime.getRuntime().availableProcessors();
+        int chunkCount = Math.min(size, processors * CHUNKS_PER_PROCESSOR);
+        int chunkSize = (size + chunkCount - 1) / chunkCount;
+
+        // Each chunk collects its own failures, so the results need no synchronization and come
+        // back in index order.
+        final List<List<RuntimeException>> failures = new ArrayList<>(chunkCount);
+        List<CompletableFuture<Void>> futures = new ArrayList<>(chunkCount);
+        for (int start = 0; start < size; start += chunkSize) {
+            final int chunkStart = start;
+            final int chunkEnd = Math.min(size, start + chunkSize);
+            final List<RuntimeException> chunkFailures = new ArrayList<>();
+            failures.add(chunkFailures);
+            futures.add(CompletableFuture.runAsync(new Runnable() {
+                @Override
+                public void run() {
+                    injectRange(snapshot, objs, chunkStart, chunkEnd, chunkFailures);
+                }
+            }, executor));
+        }
+
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()]))
+                .whenComplete(new BiConsumer<Void, Throwable>() {
+                    @Override
+                    public void accept(Void ignored, Throwable error) {
+                        if (error != null) {
+                            // Only happens if the executor itself rejects or fails a chunk.
+                            result.completeExceptionally(error);
+                            return;
+                        }
+                        int failed = 0;
+                        for (List<RuntimeException> chunk : failures) {
+                            failed += chunk.size();
+                        }
+                        if (failed == 0) {
+                            result.complete(null);
+                            return;
+                        }
+                        IllegalStateException failure = new IllegalStateException(
+                                "Failed to inject " + failed + " of " + size + " objects");
+                        for (List<RuntimeException> chunk : failures) {
+                            for (RuntimeException e : chunk) {
+                                failure.addSuppressed(e);
+                            }
+                        }
+                        result.completeExceptionally(failure);
+                    }
+                });
+        return result;
+    }
+
+    private void injectRange(Snapshot snapshot, List<?> objs, int start, int end,
+            List<RuntimeException> failures) {
+        InjectionListener listener = mRoot.mListener;
+        Class lastClass = null;
+        Injector injector = null;
+        Resolution resolution = null;
+        for (int i = start; i < end; i++) {
+            try {
+                Object obj = objs.get(i);
+                Class clazz = getBatchClass(obj, i);
+                if (clazz != lastClass) {
+                    lastClass = null;
+                    injector = getBatchInjector(snapshot, clazz, i, listener);
+                    resolution = listener == null ? null
+                            : getResolution(snapshot, clazz, injector);
+                    lastClass = clazz;
+                }
+                injectBatchElement(injector, obj, i, listener, resolution);
+            } catch (RuntimeException e) {
+                failures.add(e);
+            }
+        }
+    }
+
+    /**
+     * Gets the first injection of every type in the given profile out of the way on the given
+     * executor. Each class is loaded and initialized, and its injector is looked up so any loose
+     * resolution is cached. Types that can no longer be loaded are skipped, since a profile may
+     * be from an older version of the app.
+     *
+     * Classes are loaded with the calling thread's context class loader, or Marinator's own if
+     * there isn't one. Apps whose injected types live in other class loaders - ie, plugins or
+     * split APKs - should pass the loader to {@link #prewarm(InjectionProfile, ClassLoader,
+     * Executor)} instead.
+     *
+     * Call this once the components are prepared - registering or removing injectors afterwards
+     * starts the lookup cache over.
+     */
+    public CompletableFuture<Void> prewarm(InjectionProfile profile, Executor executor) {
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        if (loader == null) {
+            loader = MarinatorRegistry.class.getClassLoader();
+        }
+        return prewarm(profile, loader, executor).thenAccept(new Consumer<Integer>() {
+            @Override
+            public void accept(Integer skipped) {
+            }
+        });
+    }
+
+    /**
+     * Like {@link #prewarm(InjectionProfile, Executor)}, but loads the profiled classes with the
+     * given class loader.
+     *
+     * @return A future for the number of profiled classes that couldn't be loaded.
+     */
+    public CompletableFuture<Integer> prewarm(final InjectionProfile profile,
+            final ClassLoader loader, Executor executor) {
+        if (loader == null) {
+            throw new NullPointerException("Class loader cannot be null!");
+        }
+        return CompletableFuture.supplyAsync(new Supplier<Integer>() {
+            @Override
+            public Integer get() {
+                int skipped = 0;
+                for (String className : profile.getClassNames()) {
+                    Class clazz;
+                    try {
+                        clazz = Class.forName(className, true /* initialize */, loader);
+                    } catch (ClassNotFoundException | LinkageError e) {
+                        skipped++;
+                        continue;
+                    }
+                    getInjector(mSnapshot, clazz);
+                }
+                return skipped;
+            }
+        }, executor);
+    }
+
+    private static Class getBatchClass(Object obj, int index) {
+        if (obj == null) {
+            throw new NullPointerException("Cannot inject null element at index " + index);
+        }
+        return obj.getClass();
+    }
+
+    private Injector getBatchInjector(Snapshot snapshot, Class clazz, int index,
+            InjectionListener listener) {
+        Injector injector = getInjector(snapshot, clazz);
+        if (injector == null) {
+            if (listener != null) {
+                listener.onInject(clazz, Resolution.MISS, 0 /* durationNanos */);
+            }
+            throw new IllegalStateException("No injector for type " + clazz.getSimpleName()
+                    + " at index " + index);
+        }
+        return injector;
+    }
+
+    private static void injectBatchElement(Injector injector, Object obj, int index,
+            InjectionListener listener, Resolution resolution) {
+        try {
+            if (listener == null) {
+                injector.inject(obj);
+            } else {
+                long start = System.nanoTime();
+                injector.inject(obj);
+                listener.onInject(obj.getClass(), resolution, System.nanoTime() - start);
+            }
+        } catch (RuntimeException e) {
+            throw new IllegalStateException("Failed to inject " + obj.getClass().getSimpleName()
+                    + " at index " + index, e);
+        }
+    }
+
+    private Injector getInjector(Snapshot snapshot, Class clazz) {
+        // Look for the direct injector to use. If we find one, we're done!
+        Injector injector = snapshot.getDirect(clazz);
+        if (injector != null) {
+            return injector;
+        }
+
+        // Otherwise, check whether we've already resolved a loose injector for this class. The
+        // cache lives on the snapshot, so any change to the registry starts from a clean slate.
+        injector = snapshot.getResolved(clazz);
+        if (injector == null) {
+            injector = resolveLooseInjector(snapshot, clazz);
+            if (injector == null) {
+                injector = NO_INJECTOR;
+            }
+            snapshot.putResolved(clazz, injector);
+        }
+        if (injector != NO_INJECTOR) {
+            return injector;
+        }
+
+        // Nothing registered in this scope - fall back to the parent. This isn't cached, since
+        // the parent can change independently of us.
+        return mParent == null ? null : mParent.getInjector(mParent.mSnapshot, clazz);
+    }
+
+    private Resolution getResolution(Snapshot snapshot, Class clazz, Injector injector) {
+        if (injector == null) {
+            return Resolution.MISS;
+        }
+        // Find the scope that answered, and check whether it did so directly.
+        MarinatorRegistry registry = this;
+        while (registry != null) {
+            if (snapshot.getDirect(clazz) != null) {
+                return Resolution.STRICT;
+            }
+            Injector resolved = snapshot.getResolved(clazz);
+            if (resolved != null && resolved != NO_INJECTOR) {
+                return Resolution.LOOSE;
+            }
+            registry = registry.mParent;
+            snapshot = registry == null ? null : registry.mSnapshot;
+        }
+        return Resolution.LOOSE;
+    }
+
+    private static Injector resolveLooseInjector(Snapshot snapshot, Class clazz) {
+        if (!snapshot.hasLoose()) {
+            return null;
+        }
+
+        // Walk up the superclass chain, so the closest loose ancestor wins. Strict injectors of
+        // ancestors never apply to subclasses, so they're skipped.
+        for (Class parent = clazz.getSuperclass(); parent != null;
+                parent = parent.getSuperclass()) {
+            Injector injector = snapshot.getLoose(parent);
+            if (injector != null) {
+                return injector;
+            }
+        }
+
+        // Then check interfaces breadth first - those of the class itself, then those of each
+        // superclass in turn, and then their superinterfaces. The order is fixed by the class
+        // declarations, so the same class always resolves to the same injector.
+        ArrayDeque<Class> queue = new ArrayDeque<>();
+        for (Class type = clazz; type != null; type = type.getSuperclass()) {
+            Collections.addAll(queue, type.getInterfaces());
+        }
+        Set<Class> visited = new HashSet<>();
+        while (!queue.isEmpty()) {
+            Class iface = queue.poll();
+            if (!visited.add(iface)) {
+                continue;
+            }
+            Injector injector = snapshot.getLoose(iface);
+            if (injector != null) {
+                return injector;
+            }
+            Collections.addAll(queue, iface.getInterfaces());
+        }
+
+        // No injector found - ah well, we did our best.
+        return null;
+    }
+
+    private static int capacityFor(int size) {
+        // Size the map so it never needs to rehash while we fill it.
+        return (int) (size / 0.75f) + 1;
+    }
+
+    private static final class NoInjector implements Injector {
+        @Override
+        public void inject(Object obj) {
+            throw new IllegalStateException("No injector for type "
+                    + obj.getClass().getSimpleName());
+        }
+    }
+
+    /**
+     * View of the registered injectors that a lookup or batch resolves against. Writes go
+     * through an {@link Editor}, and publish a new snapshot once they're done.
+     */
+    private abstract static class Snapshot {
+        /**
+         * Returns the injector registered for exactly this class, whether strict or loose.
+         */
+        abstract Injector getDirect(Class clazz);
+
+        /**
+         * Returns the injector registered for exactly this class if it's loose.
+         */
+        abstract Injector getLoose(Class clazz);
+
+        abstract boolean hasLoose();
+
+        abstract Injector getResolved(Class clazz);
+
+        abstract void putResolved(Class clazz, Injector injector);
+
+        /**
+         * Starts a write based on this snapshot. Must be called while holding the registry lock.
+         */
+        abstract Editor edit(int additions);
+
+        /**
+         * Returns an empty snapshot of the same kind.
+         */
+        abstract Snapshot cleared();
+    }
+
+    /**
+     * Collects the changes for a single write. Nothing is visible to readers until it's
+     * committed, so a write that fails partway through leaves the registry untouched.
+     */
+    private abstract static class Editor {
+        abstract Injector get(Class clazz);
+
+        abstract void put(Class clazz, Injector injector, boolean strict);
+
+        abstract void remove(Class clazz);
+
+        abstract Snapshot commit();
+    }
+
+    /**
+     * Immutable view of the registered injectors. Snapshots are never modified once published,
+     * so they can be safely read from any thread without synchronization. The only mutable state
+     * is the cache of resolved loose lookups, which is derived entirely from the other two maps.
+     */
+    private static final class MapSnapshot extends Snapshot {
+        final Map<Class, Injector> strict;
+        final Map<Class, Injector> loose;
+        final Map<Class, Injector> resolved = new ConcurrentHashMap<>();
+
+        MapSnapshot(Map<Class, Injector> strict, Map<Class, Injector> loose) {
+            this.strict = strict;
+            this.loose = loose;
+        }
+
+        static MapSnapshot empty() {
+            // Not shared between registries, since each snapshot caches its own lookups.
+            return new MapSnapshot(Collections.<Class, Injector>emptyMap(),
+                    Collections.<Class, Injector>emptyMap());
+        }
+
+        @Override
+        Injector getDirect(Class clazz) {
+            return strict.get(clazz);
+        }
+
+        @Override
+        Injector getLoose(Class clazz) {
+            return loose.get(clazz);
+        }
+
+        @Override
+        boolean hasLoose() {
+            return !loose.isEmpty();
+        }
+
+        @Override
+        Injector getResolved(Class clazz) {
+            return resolved.get(clazz);
+        }
+
+        @Override
+        void putResolved(Class clazz, Injector injector) {
+            resolved.put(clazz, injector);
+        }
+
+        @Override
+        Editor edit(int additions) {
+            final Map<Class, Injector> strictInjectors =
+                    new HashMap<>(capacityFor(strict.size() + additions));
+            strictInjectors.putAll(strict);
+            return new Editor() {
+                // Only copied once a write actually touches a loose injector.
+                private Map<Class, Injector> mLoose = loose;
+
+                @Override
+                Injector get(Class clazz) {
+                    return strictInjectors.get(clazz);
+                }
+
+                @Override
+                void put(Class clazz, Injector injector, boolean strict) {
+                    strictInjectors.put(clazz, injector);
+                    if (!strict) {
+                        looseForWrite().put(clazz, injector);
+                    } else if (mLoose.containsKey(clazz)) {
+                        looseForWrite().remove(clazz);
+                    }
+                }
+
+                @Override
+                void remove(Class clazz) {
+                    strictInjectors.remove(clazz);
+                    if (mLoose.containsKey(clazz)) {
+                        looseForWrite().remove(clazz);
+                    }
+                }
+
+                @Override
+                Snapshot commit() {
+                    return new MapSnapshot(strictInjectors, mLoose);
+                }
+
+                private Map<Class, Injector> looseForWrite() {
+                    if (mLoose == loose) {
+                        mLoose = new HashMap<>(loose);
+                    }
+                    return mLoose;
+                }
+            };
+        }
+
+        @Override
+        Snapshot cleared() {
+            return empty();
+        }
+    }
+
+    /**
+     * View of a weak registry. Rather than holding maps keyed by class, each injector is stored
+     * on the class itself through a {@link ClassValue}, so it lives exactly as long as the class
+     * does - and once the registry is collected, its injectors are let go by the next write to
+     * any weak registry. Writes update the affected classes in place and then publish a new
+     * snapshot, whose version invalidates any loose lookups cached under the previous one.
+     */
+    private static final class WeakSnapshot extends Snapshot {
+        // Shared by every weak registry and scope, rather than one per registry: the JVM keeps an
+        // entry on each class for every ClassValue that has touched it, so creating scopes would
+        // otherwise leave entries behind on every class they injected until it's unloaded.
+        static final ClassValue<Slots> SLOTS = new SlotsValue();
+
+        final SlotKey key;
+        final int version;
+        final boolean hasLoose;
+
+        WeakSnapshot(SlotKey key, int version, boolean hasLoose) {
+            this.key = key;
+            this.version = version;
+            this.hasLoose = hasLoose;
+        }
+
+        static WeakSnapshot empty() {
+            return new WeakSnapshot(new SlotKey(), 0 /* version */, false /* hasLoose */);
+        }
+
+        @Override
+        Injector getDirect(Class clazz) {
+            Slot slot = SLOTS.get(clazz).get(key);
+            Binding binding = slot == null ? null : slot.binding;
+            return binding == null ? null : binding.injector;
+        }
+
+        @Override
+        Injector getLoose(Class clazz) {
+            Slot slot = SLOTS.get(clazz).get(key);
+            Binding binding = slot == null ? null : slot.binding;
+            return binding == null || binding.strict ? null : binding.injector;
+        }
+
+        @Override
+        boolean hasLoose() {
+            return hasLoose;
+        }
+
+        @Override
+        Injector getResolved(Class clazz) {
+            Slot slot = SLOTS.get(clazz).get(key);
+            Resolved resolved = slot == null ? null : slot.resolved;
+            return resolved == null || resolved.version != version ? null : resolved.injector;
+        }
+
+        @Override
+        void putResolved(Class clazz, Injector injector) {
+            SLOTS.get(clazz).getOrCreate(key).resolved = new Resolved(injector, version);
+        }
+
+        @Override
+        Editor edit(int additions) {
+            SlotRef.releaseCollected();
+            final Map<Class, Binding> pending = new LinkedHashMap<>();
+            return new Editor() {
+                private boolean mHasLoose = hasLoose;
+
+                @Override
+                Injector get(Class clazz) {
+                    if (!pending.containsKey(clazz)) {
+                        return getDirect(clazz);
+                    }
+                    Binding binding = pending.get(clazz);
+                    return binding == null ? null : binding.injector;
+                }
+
+                @Override
+                void put(Class clazz, Injector injector, boolean strict) {
+                    pending.put(clazz, new Binding(injector, strict));
+                    mHasLoose |= !strict;
+                }
+
+                @Override
+                void remove(Class clazz) {
+                    pending.put(clazz, null);
+                }
+
+                @Override
+                Snapshot commit() {
+                    for (Map.Entry<Class, Binding> entry : pending.entrySet()) {
+                        Slots slots = SLOTS.get(entry.getKey());
+                        if (entry.getValue() != null) {
+                            slots.getOrCreate(key).binding = entry.getValue();
+                        } else {
+                            Slot slot = slots.get(key);
+                            if (slot != null) {
+                                slot.binding = null;
+                            }
+                        }
+                    }
+                    return new WeakSnapshot(key, version + 1, mHasLoose);
+                }
+            };
+        }
+
+        @Override
+        Snapshot cleared() {
+            // A fresh key drops every binding at once. The old slots are released once nothing
+            // refers to the old key any more.
+            return empty();
+        }
+    }
+
+    private static final class SlotsValue extends ClassValue<Slots> {
+        @Override
+        protected Slots computeValue(Class<?> type) {
+            return new Slots();
+        }
+    }
+
+    /**
+     * Identifies a weak registry's slots on every class, without keeping the registry alive.
+     */
+    private static final class SlotKey {
+    }
+
+    /**
+     * The slots of every weak registry that has touched a class. Lookups scan a copy-on-write
+     * array, which only ever holds a handful of live registries.
+     */
+    private static final class Slots {
+        private static final SlotRef[] EMPTY = new SlotRef[0];
+
+        private volatile SlotRef[] mRefs = EMPTY;
+
+        Slot get(SlotKey key) {
+            for (SlotRef ref : mRefs) {
+                if (ref.get() == key) {
+                    return ref.slot;
+                }
+            }
+            return null;
+        }
+
+        synchronized Slot getOrCreate(SlotKey key) {
+            Slot slot = get(key);
+            if (slot != null) {
+                return slot;
+            }
+            // Drop the slots of registries that have since been collected while we're copying.
+            List<SlotRef> refs = new ArrayList<>(mRefs.length + 1);
+            for (SlotRef ref : mRefs) {
+                if (ref.get() != null) {
+                    refs.add(ref);
+                }
+            }
+            slot = new Slot();
+            refs.add(new SlotRef(key, slot));
+            mRefs = refs.toArray(EMPTY);
+            return slot;
+        }
+    }
+
+    private static final class SlotRef extends WeakReference<SlotKey> {
+        private static final ReferenceQueue<SlotKey> COLLECTED = new ReferenceQueue<>();
+
+        final Slot slot;
+
+        SlotRef(SlotKey key, Slot slot) {
+            super(key, COLLECTED);
+            this.slot = slot;
+        }
+
+        /**
+         * Lets go of the injectors held by registries that have been collected, rather than
+         * waiting for their classes to be touched again.
+         */
+        static void releaseCollected() {
+            Reference<? extends SlotKey> ref;
+            while ((ref = COLLECTED.poll()) != null) {
+                Slot slot = ((SlotRef) ref).slot;
+                slot.binding = null;
+                slot.resolved = null;
+            }
+        }
+    }
+
+    private static final class Slot {
+        volatile Binding binding;
+        volatile Resolved resolved;
+    }
+
+    private static final class Binding {
+        final Injector injector;
+        final boolean strict;
+
+        Binding(Injector injector, boolean strict) {
+            this.injector = injector;
+            this.strict = strict;
+        }
+    }
+
+    private static final class Resolved {
+        final Injector injector;
+        final int version;
+
+        Resolved(Injector injector, int version) {
+            this.injector = injector;
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.blueapron.marinator;
+
+import com.blueapron.marinator.Marinator.Injector;
+
+/**
+ * Handle for a table of injectors registered together. Closing the handle atomically removes
+ * every type in the table, unless it has since been replaced - in which case the replacement is
+ * left alone. Closing a handle more than once does nothing.
+ */
+public final class Registration implements AutoCloseable {
+
+    private final MarinatorRegistry mRegistry;
+    private final Class[] mClasses;
+    private final Injector[] mInjectors;
+    private final Registration[] mParts;
+    private final int mEpoch;
+    private boolean mClosed;
+
+    Registration(MarinatorRegistry registry, Class[] classes, Injector[] injectors, int epoch) {
+        mRegistry = registry;
+        mClasses = classes;
+        mInjectors = injectors;
+        mParts = null;
+        mEpoch = epoch;
+    }
+
+    private Registration(Registration[] parts) {
+        mRegistry = null;
+        mClasses = null;
+        mInjectors = null;
+        mParts = parts;
+        mEpoch = 0;
+    }
+
+    /**
+     * Combines several registrations into a single handle, which closes the parts in reverse
+     * order. Each part is removed atomically, but the parts are not removed as a single unit.
+     */
+    public static Registration combine(Registration... parts) {
+        for (Registration part : parts) {
+            if (part == null) {
+                throw new NullPointerException("Registration cannot be null!");
+            }
+        }
+        return new Registration(parts.clone());
+    }
+
+    /**
+     * Returns the registry the injectors were registered with, or null for a combined handle.
+     */
+    public MarinatorRegistry getRegistry() {
+        return mRegistry;
+    }
+
+    /**
+     * Returns true if this registration still decides how {@link Marinator#inject} handles its
+     * types - ie, it was made with the shared registry, none of the injectors in the shared
+     * registry have since been removed or replaced, and no thread override or injection listener
+     * is installed. The generated Marinade facade checks this before calling components directly,
+     * and otherwise falls back to the registry. Always false for a combined handle.
+     */
+    public boolean canBypassRegistry() {
+        return mRegistry == Marinator.getRegistry() && !Marinator.hasOverrides()
+                && mRegistry.isUnchangedSince(mEpoch);
+    }
+
+    /**
+     * Returns true if this registration is in effect for the calling thread - ie, it was made
+     * with the registry that {@link Marinator}'s static methods use on this thread, and every one
+     * of its injectors is still registered there. Always false once closed.
+     */
+    public boolean isActive() {
+        synchronized (this) {
+            if (mClosed) {
+                return false;
+            }
+        }
+        if (mParts != null) {
+            for (Registration part : mParts) {
+                if (!part.isActive()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (mRegistry != Marinator.current()) {
+            return false;
+        }
+        for (int i = 0; i < mClasses.length; i++) {
+            if (!mRegistry.isRegistered(mClasses[i], mInjectors[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+        }
+        if (mParts == null) {
+            mRegistry.unregisterInjectors(mClasses, mInjectors);
+            return;
+        }
+        for (int i = mParts.length - 1; i >= 0; i--) {
+            mParts[i].close();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.blueapron.marinator;
+
+import com.blueapron.marinator.Marinator.Factory;
+import com.blueapron.marinator.Marinator.Injector;
+
+/**
+ * Injector for a single class, resolved once and cached. Hold one in a static field to skip the
+ * registry lookup on every injection:
+ *
+ * <pre>{@code
+ * private static final ResolvedInjector<Order> INJECTOR = Marinator.injectorFor(Order.class);
+ *
+ * public Order() {
+ *     INJECTOR.inject(this);
+ * }
+ * }</pre>
+ *
+ * The handle never goes stale - if the registry changes, it resolves the injector again on the
+ * next call. It defers to the registry whenever the registry could answer differently: for
+ * subclasses of the class, while an injection listener is installed, or (for handles from
+ * {@link Marinator#injectorFor}) while a thread override is installed.
+ *
+ * Handles can also construct new instances with {@link #newInstance}, which makes hydrating large
+ * numbers of objects a direct constructor call and injection, with no reflection or lookup.
+ */
+public final class ResolvedInjector<T> {
+
+    private final MarinatorRegistry mRegistry;
+    private final Class<T> mType;
+    private final boolean mFollowsOverrides;
+    private volatile State mState;
+
+    ResolvedInjector(MarinatorRegistry registry, Class<T> type, boolean followsOverrides) {
+        if (type == null) {
+            throw new NullPointerException("Class cannot be null!");
+        }
+        mRegistry = registry;
+        mType = type;
+        mFollowsOverrides = followsOverrides;
+        mState = resolve();
+    }
+
+    /**
+     * Returns the class this handle injects.
+     */
+    public Class<T> getType() {
+        return mType;
+    }
+
+    public void inject(T obj) {
+        State state = mState;
+        if (obj.getClass() != mType || !mRegistry.isCurrent(state.snapshots)
+                || (mFollowsOverrides && Marinator.hasOverrides())) {
+            injectSlow(obj);
+            return;
+        }
+        if (state.injector == null) {
+            throw new IllegalStateException("No injector for type " + mType.getSimpleName());
+        }
+        state.injector.inject(obj);
+    }
+
+    private void injectSlow(T obj) {
+        if (mFollowsOverrides && Marinator.hasOverrides()) {
+            Marinator.inject(obj);
+            return;
+        }
+        if (obj.getClass() != mType || mRegistry.isObserved()) {
+            mRegistry.inject(obj);
+            return;
+        }
+        // The registry has changed since we last resolved, so look the injector up again.
+        State state = resolve();
+        mState = state;
+        if (state.injector == null) {
+            throw new IllegalStateException("No injector for type " + mType.getSimpleName());
+        }
+        state.injector.inject(obj);
+    }
+
+    /**
+     * Constructs and injects a new instance of the class. See {@link MarinatorRegistry#newInstance}.
+     */
+    public T newInstance() {
+        State state = mState;
+        if (!mRegistry.isCurrent(state.snapshots)
+                || (mFollowsOverrides && Marinator.hasOverrides())) {
+            return newInstanceSlow();
+        }
+        Object obj = state.factory == null ? null : state.factory.newInstance();
+        if (obj == null) {
+            throw new IllegalStateException("No factory for type " + mType.getSimpleName());
+        }
+        return mType.cast(obj);
+    }
+
+    private T newInstanceSlow() {
+        if (mFollowsOverrides && Marinator.hasOverrides()) {
+            return Marinator.newInstance(mType);
+        }
+        if (mRegistry.isObserved()) {
+            return mRegistry.newInstance(mType);
+        }
+        mState = resolve();
+        return mRegistry.newInstance(mType);
+    }
+
+    private State resolve() {
+        // Capture the snapshots first, so a concurrent write can only make us resolve again.
+        Object[] snapshots = mRegistry.captureSnapshots();
+        return new State(snapshots, mRegistry.resolveInjector(mType),
+                mRegistry.resolveFactory(mType));
+    }
+
+    private static final class State {
+        final Object[] snapshots;
+        final Injector injector;
+        final Factory factory;
+
+        State(Object[] snapshots, Injector injector, Factory factory) {
+            this.snapshots = snapshots;
+            this.injector = injector;
+            this.factory = factory;
+        }
+    }
+}